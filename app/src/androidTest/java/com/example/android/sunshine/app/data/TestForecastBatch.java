@@ -0,0 +1,177 @@
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentProviderClient;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+public class TestForecastBatch extends AndroidTestCase {
+    private static final String LOG_TAG = TestForecastBatch.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final int ROUNDS = 50;
+    // Enough locations for an import of more than 10k rows
+    private static final int IMPORT_LOCATIONS = 1000;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    private static final String[] DESCRIPTIONS = {"Clear", "Rain", "Clouds"};
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    // Computed up front; normalizing allocates, which would skew the allocation counts
+    private static final long[] DATES = new long[DAYS];
+    static {
+        long first = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+        for (int i = 0; i < DAYS; i++) {
+            DATES[i] = first + i * DAY_IN_MILLIS;
+        }
+    }
+
+    private static void fill(ForecastBatch batch, long locationId) {
+        for (int i = 0; i < DAYS; i++) {
+            batch.add(locationId, DATES[i], 1010 + i, 60 + i, 1.5, 90, 20 + i, 10 + i,
+                    DESCRIPTIONS[i % DESCRIPTIONS.length], 800 + i);
+        }
+    }
+
+    // What the sync adapter used to build for every day
+    private static ContentValues[] toContentValues(long locationId) {
+        List<ContentValues> cvList = new ArrayList<ContentValues>();
+        for (int i = 0; i < DAYS; i++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, DATES[i]);
+            values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 60.0 + i);
+            values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1010.0 + i);
+            values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, 1.5);
+            values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, 90.0);
+            values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 20.0 + i);
+            values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 10.0 + i);
+            values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, DESCRIPTIONS[i % DESCRIPTIONS.length]);
+            values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, 800 + i);
+            cvList.add(values);
+        }
+        ContentValues[] cvArray = new ContentValues[cvList.size()];
+        cvList.toArray(cvArray);
+        return cvArray;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void testBulkInsertFromBatch() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        long locationId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        ForecastBatch batch = new ForecastBatch();
+        fill(batch, locationId);
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.WeatherEntry.CONTENT_URI);
+        try {
+            WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+            assertEquals(DAYS, provider.bulkInsert(batch));
+        } finally {
+            client.release();
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(DAYS, cursor.getCount());
+        ContentValues[] expected = toContentValues(locationId);
+        for (int i = 0; i < DAYS; i++) {
+            cursor.moveToPosition(i);
+            TestUtilities.validateCurrentRecord("Error: row " + i + " not written from the batch",
+                    cursor, expected[i]);
+        }
+        cursor.close();
+    }
+
+    /**
+     * Imports IMPORT_LOCATIONS * DAYS rows through both write paths and reports rows/s.  The
+     * foreign key to the location table isn't enforced, so no locations are stored.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void testImportThroughput() {
+        int rows = IMPORT_LOCATIONS * DAYS;
+        ContentValues[] values = new ContentValues[rows];
+        ForecastBatch batch = new ForecastBatch();
+        for (int location = 0; location < IMPORT_LOCATIONS; location++) {
+            System.arraycopy(toContentValues(location + 1), 0, values, location * DAYS, DAYS);
+            fill(batch, location + 1);
+        }
+
+        long start = System.nanoTime();
+        assertEquals(rows, mContext.getContentResolver().bulkInsert(
+                WeatherContract.WeatherEntry.CONTENT_URI, values));
+        long contentValuesNanos = System.nanoTime() - start;
+        Log.i(LOG_TAG, String.format(Locale.US, "ContentValues import: %d rows, %.0f rows/s",
+                rows, rows * 1e9 / contentValuesNanos));
+
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.WeatherEntry.CONTENT_URI);
+        try {
+            WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+            start = System.nanoTime();
+            assertEquals(rows, provider.bulkInsert(batch));
+            long batchNanos = System.nanoTime() - start;
+            Log.i(LOG_TAG, String.format(Locale.US, "ForecastBatch import: %d rows, %.0f rows/s",
+                    rows, rows * 1e9 / batchNanos));
+        } finally {
+            client.release();
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(rows, cursor.getCount());
+        cursor.close();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testAllocationsPerDay() {
+        ForecastBatch batch = new ForecastBatch();
+        // Warm up, so the batch has grown to size
+        fill(batch, 1);
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        for (int round = 0; round < ROUNDS; round++) {
+            toContentValues(1);
+        }
+        int contentValuesAllocations = Debug.getThreadAllocCount();
+
+        Debug.resetThreadAllocCount();
+        for (int round = 0; round < ROUNDS; round++) {
+            batch.clear();
+            fill(batch, 1);
+        }
+        int batchAllocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        Log.d(LOG_TAG, "Allocations per ingested day: ContentValues "
+                + (float) contentValuesAllocations / (ROUNDS * DAYS)
+                + ", ForecastBatch " + (float) batchAllocations / (ROUNDS * DAYS));
+        if (contentValuesAllocations == 0) {
+            // Allocation counting isn't supported by this runtime
+            return;
+        }
+        assertEquals("Error: filling a reused batch should not allocate", 0, batchAllocations);
+    }
+}
@@ -16,8 +16,11 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
@@ -29,6 +32,9 @@ import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
 
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
@@ -512,4 +518,101 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    // An applyBatch either applies every operation or none of them.
+    public void testApplyBatchIsAtomic() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues values : createBulkInsertWeatherValues(locationRowId)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values).build());
+        }
+        // Fails: there is no such location
+        ArrayList<ContentProviderOperation> failing =
+                new ArrayList<ContentProviderOperation>(operations);
+        failing.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withSelection(LocationEntry._ID + " = ?",
+                        new String[]{Long.toString(locationRowId + 1)})
+                .withValue(LocationEntry.COLUMN_LAST_SYNCED, 1L)
+                .withExpectedCount(1)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, failing);
+            fail("Error: the batch should have failed");
+        } catch (OperationApplicationException expected) {
+        }
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals("Error: a failed batch left some of its rows behind", 0, cursor.getCount());
+        cursor.close();
+
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, results.length);
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    // A write notifies only the forecasts of the locations it touched, once per write.
+    public void testNotificationsAreScopedToLocations() throws Exception {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        String otherLocation = TestUtilities.TEST_LOCATION + "-other";
+        testValues.put(LocationEntry.COLUMN_LOCATION_SETTING, otherLocation);
+        mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+
+        final TestUtilities.TestContentObserver northPoleObserver =
+                TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true,
+                northPoleObserver);
+        TestUtilities.TestContentObserver otherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(otherLocation), true, otherObserver);
+
+        // What a sync writes for one location: its days, when it synced, and the expired days
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues values : createBulkInsertWeatherValues(locationRowId)) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values).build());
+        }
+        operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withSelection(LocationEntry._ID + " = ?", new String[]{Long.toString(locationRowId)})
+                .withValue(LocationEntry.COLUMN_LAST_SYNCED, System.currentTimeMillis())
+                .build());
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(WeatherContract.normalizeDate(TestUtilities.TEST_DATE))})
+                .build());
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return northPoleObserver.mContentChanged;
+            }
+        }.run();
+        // Give a second or stray notification time to arrive
+        Thread.sleep(500);
+        mContext.getContentResolver().unregisterContentObserver(northPoleObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherObserver);
+        northPoleObserver.mHT.quit();
+        otherObserver.mHT.quit();
+
+        assertEquals("Error: the batch should have been notified once",
+                1, northPoleObserver.mChangeCount);
+        assertFalse("Error: observers of another location were notified",
+                otherObserver.mContentChanged);
+    }
 }
@@ -0,0 +1,226 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs EXPLAIN QUERY PLAN for what the provider runs for every URI it matches, on a database
+ * the size of a heavy user's (LOCATIONS locations with DAYS days each), and fails if any of
+ * them reads a whole table or index.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+    private static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    private static final String DATABASE = "query_plans.db";
+    private static final int LOCATIONS = 1000;
+    private static final int DAYS = 365;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    // What the forecast list asks for
+    private static final String[] LIST_PROJECTION = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_LAST_SYNCED
+    };
+    private static final String DATE_ORDER = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    /**
+     * A statement the provider runs for one URI pattern.
+     */
+    private static class Query {
+        final Uri uri;
+        final String sql;
+        final String[] args;
+
+        Query(Uri uri, String sql, String... args) {
+            this.uri = uri;
+            this.sql = sql;
+            this.args = args;
+        }
+    }
+
+    private WeatherDbHelper mHelper;
+    private long mFirstDate;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(DATABASE);
+        mHelper = new WeatherDbHelper(mContext, DATABASE, true);
+        mFirstDate = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mHelper.close();
+        mContext.deleteDatabase(DATABASE);
+        super.tearDown();
+    }
+
+    private void fill(SQLiteDatabase db) {
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " +
+                WeatherContract.WeatherEntry.TABLE_NAME + " (" +
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+                WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+                WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+                WeatherContract.WeatherEntry.COLUMN_WEATHER_ID + ", " +
+                WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+                WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+                WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+                WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+                WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+                WeatherContract.WeatherEntry.COLUMN_DEGREES +
+                ") VALUES (?, ?, 'Clear', 800, 10, 20, 60, 1010, 1.5, 90)");
+        try {
+            for (int location = 0; location < LOCATIONS; location++) {
+                ContentValues values = new ContentValues();
+                values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, "location" + location);
+                values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "City " + location);
+                values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 0.0);
+                values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, 0.0);
+                long locationId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                for (int day = 0; day < DAYS; day++) {
+                    insert.bindLong(1, locationId);
+                    insert.bindLong(2, mFirstDate + day * DAY_IN_MILLIS);
+                    insert.executeInsert();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return what the provider runs for each URI pattern, the way the app queries it
+     */
+    private List<Query> providerQueries() {
+        String location = "location" + (LOCATIONS / 2);
+        String startDate = Long.toString(mFirstDate + 100 * DAY_IN_MILLIS);
+        List<Query> queries = new ArrayList<Query>();
+
+        // "weather/*": the forecast list, widgets and Muzei, with and without a start date
+        Uri withStartDate = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                location, mFirstDate);
+        queries.add(new Query(withStartDate,
+                selectJoined(LIST_PROJECTION, WeatherProvider.sLocationSettingWithStartDateSelection),
+                location, startDate));
+        queries.add(new Query(WeatherContract.WeatherEntry.buildWeatherLocation(location),
+                selectJoined(LIST_PROJECTION, WeatherProvider.sLocationSettingSelection),
+                location));
+
+        // "weather/*/#": the detail view and notification read every column of one day
+        queries.add(new Query(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                location, mFirstDate),
+                selectJoined(null, WeatherProvider.sLocationSettingAndDaySelection),
+                location, Long.toString(mFirstDate)));
+
+        // "weather": the sync reads a location's stored days and expires old ones
+        Uri weather = WeatherContract.WeatherEntry.CONTENT_URI;
+        queries.add(new Query(weather, "SELECT * FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+                " WHERE " + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?", "1", startDate));
+        queries.add(new Query(weather, "DELETE FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+                " WHERE " + WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                Long.toString(mFirstDate)));
+
+        // "location": looking a location up by its setting
+        queries.add(new Query(WeatherContract.LocationEntry.CONTENT_URI,
+                "SELECT " + WeatherContract.LocationEntry._ID + " FROM " +
+                WeatherContract.LocationEntry.TABLE_NAME + " WHERE " +
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?", location));
+        return queries;
+    }
+
+    /**
+     * @return the SELECT the provider runs on the weather/location join
+     */
+    @SuppressWarnings("deprecation")
+    private static String selectJoined(String[] projection, String selection) {
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                projection, selection, null, null, null, DATE_ORDER, null);
+    }
+
+    public void testNoFullScans() {
+        SQLiteDatabase db = mHelper.getWritableDatabase();
+        long start = System.nanoTime();
+        fill(db);
+        Log.i(LOG_TAG, String.format(Locale.US, "Filled %d rows in %.0fms",
+                LOCATIONS * DAYS, (System.nanoTime() - start) / 1e6));
+
+        UriMatcher matcher = WeatherProvider.buildUriMatcher();
+        boolean[] covered = new boolean[4];
+        for (Query query : providerQueries()) {
+            int match = matcher.match(query.uri);
+            switch (match) {
+                case WeatherProvider.WEATHER: covered[0] = true; break;
+                case WeatherProvider.WEATHER_WITH_LOCATION: covered[1] = true; break;
+                case WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE: covered[2] = true; break;
+                case WeatherProvider.LOCATION: covered[3] = true; break;
+                default: fail("Error: " + query.uri + " isn't matched by the provider");
+            }
+
+            String plan = explain(db, query);
+            Log.i(LOG_TAG, query.uri + ": " + plan);
+            assertFalse("Error: full scan for " + query.uri + "\n" + query.sql + "\n" + plan,
+                    plan.contains("SCAN"));
+            long queryStart = System.nanoTime();
+            execute(db, query);
+            Log.i(LOG_TAG, String.format(Locale.US, "  ran in %.2fms",
+                    (System.nanoTime() - queryStart) / 1e6));
+        }
+        for (int i = 0; i < covered.length; i++) {
+            assertTrue("Error: a URI pattern of the provider has no query plan check", covered[i]);
+        }
+
+        // The list is read from the index alone
+        String listPlan = explain(db, providerQueries().get(0));
+        assertTrue(listPlan, listPlan.contains(
+                "COVERING INDEX " + WeatherDbHelper.INDEX_WEATHER_LIST.toUpperCase(Locale.US)));
+        assertFalse("Error: the list shouldn't need sorting\n" + listPlan,
+                listPlan.contains("TEMP B-TREE"));
+    }
+
+    /**
+     * @return every step of the statement's query plan, one per line
+     */
+    private static String explain(SQLiteDatabase db, Query query) {
+        Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + query.sql, query.args);
+        StringBuilder plan = new StringBuilder();
+        int detail = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.append(cursor.getString(detail).toUpperCase(Locale.US)).append('\n');
+        }
+        cursor.close();
+        return plan.toString();
+    }
+
+    private static void execute(SQLiteDatabase db, Query query) {
+        if (query.sql.startsWith("DELETE")) {
+            // Only the plan matters; keep the data for the other queries
+            return;
+        }
+        Cursor cursor = db.rawQuery(query.sql, query.args);
+        cursor.getCount();
+        cursor.close();
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Measures how long forecast queries take while a sync-sized ingest is writing, with the
+ * rollback journal (how the database used to be opened) and with write-ahead logging.
+ */
+public class TestReaderLatency extends AndroidTestCase {
+    private static final String LOG_TAG = TestReaderLatency.class.getSimpleName();
+
+    private static final String ROLLBACK_DATABASE = "reader_latency_rollback.db";
+    private static final String WAL_DATABASE = "reader_latency_wal.db";
+    private static final int WRITES = 20;
+    private static final int ROWS_PER_WRITE = 1000;
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    // What the forecast list asks for, minus the provider
+    private static final String READER_QUERY = "SELECT " +
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID + ", " +
+            WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherContract.LocationEntry.COLUMN_LAST_SYNCED +
+            " FROM " + WeatherContract.WeatherEntry.TABLE_NAME + " INNER JOIN " +
+            WeatherContract.LocationEntry.TABLE_NAME + " ON " +
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
+            " = " + WeatherContract.LocationEntry.TABLE_NAME + "." + WeatherContract.LocationEntry._ID +
+            " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+            WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ORDER BY " +
+            WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteDatabases();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDatabases();
+        super.tearDown();
+    }
+
+    private void deleteDatabases() {
+        mContext.deleteDatabase(ROLLBACK_DATABASE);
+        mContext.deleteDatabase(WAL_DATABASE);
+    }
+
+    public void testReadersDuringIngest() throws Exception {
+        long[] rollback = measure(new WeatherDbHelper(mContext, ROLLBACK_DATABASE, false));
+        long[] wal = measure(new WeatherDbHelper(mContext, WAL_DATABASE, true));
+        Log.i(LOG_TAG, "Reader latency during ingest, rollback journal: " + summarize(rollback));
+        Log.i(LOG_TAG, "Reader latency during ingest, write-ahead log: " + summarize(wal));
+
+        assertTrue("Error: no query ran during the ingest", rollback.length > 0);
+        assertTrue("Error: no query ran during the ingest", wal.length > 0);
+    }
+
+    public void testJournalMode() {
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, WAL_DATABASE, true);
+        try {
+            Cursor cursor = helper.getWritableDatabase().rawQuery("PRAGMA journal_mode", null);
+            assertTrue(cursor.moveToFirst());
+            String expected = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                    ? "wal" : "delete";
+            assertEquals(expected, cursor.getString(0).toLowerCase(Locale.US));
+            cursor.close();
+        } finally {
+            helper.close();
+        }
+    }
+
+    /**
+     * Writes WRITES transactions of ROWS_PER_WRITE rows on one thread while querying one
+     * location's forecast on this one, for as long as the writes go on.
+     *
+     * @return the time every query took, in nanoseconds
+     */
+    private long[] measure(WeatherDbHelper helper) throws InterruptedException {
+        try {
+            final SQLiteDatabase db = helper.getWritableDatabase();
+            ContentValues location = TestUtilities.createNorthPoleLocationValues();
+            final long locationId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                    location);
+            assertTrue(locationId != -1);
+            final long firstDate = WeatherContract.normalizeDate(TestUtilities.TEST_DATE);
+
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    ContentValues values = TestUtilities.createWeatherValues(locationId);
+                    for (int write = 0; write < WRITES; write++) {
+                        db.beginTransaction();
+                        try {
+                            for (int i = 0; i < ROWS_PER_WRITE; i++) {
+                                values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                                        firstDate + i * DAY_IN_MILLIS);
+                                values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, write + i);
+                                db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                            }
+                            db.setTransactionSuccessful();
+                        } finally {
+                            db.endTransaction();
+                        }
+                    }
+                }
+            }, "ingest");
+
+            SQLiteDatabase reader = helper.getReadableDatabase();
+            String[] args = {TestUtilities.TEST_LOCATION, Long.toString(firstDate)};
+            List<Long> latencies = new ArrayList<Long>();
+            writer.start();
+            while (writer.isAlive()) {
+                long start = System.nanoTime();
+                Cursor cursor = reader.rawQuery(READER_QUERY, args);
+                cursor.getCount();
+                cursor.close();
+                latencies.add(System.nanoTime() - start);
+            }
+            writer.join();
+
+            long[] nanos = new long[latencies.size()];
+            for (int i = 0; i < nanos.length; i++) {
+                nanos[i] = latencies.get(i);
+            }
+            return nanos;
+        } finally {
+            helper.close();
+        }
+    }
+
+    private static String summarize(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return String.format(Locale.US, "%d queries, p50=%.2fms p99=%.2fms max=%.2fms",
+                sorted.length, percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6,
+                sorted.length == 0 ? 0 : sorted[sorted.length - 1] / 1e6);
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
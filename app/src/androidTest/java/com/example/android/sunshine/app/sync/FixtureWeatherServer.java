@@ -0,0 +1,112 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A local stand-in for the OpenWeatherMap forecast API, serving {@link ForecastFixtures} with a
+ * configurable latency and payload size, so the sync pipeline can be exercised and benchmarked
+ * offline.  Point an {@link OpenWeatherMapSource} at {@link #getBaseUrl()}.
+ *
+ * Responses carry an ETag derived from the body and honour If-None-Match.  Locations starting
+ * with {@link #UNKNOWN_LOCATION_PREFIX} get OWM's "city not found" answer.
+ *
+ * Requests to {@link #GROUP_PATH} are answered with the forecasts of every "q" parameter in one
+ * group response, for sources created with {@link #newGroupSource}.  With
+ * {@link #scrambleGroups} set, they come in reverse order and without the first location.
+ */
+class FixtureWeatherServer {
+    static final String UNKNOWN_LOCATION_PREFIX = "unknown";
+    static final String GROUP_PATH = "data/2.5/forecast/daily/group";
+
+    // Delay before every response, in milliseconds
+    volatile long latencyMillis;
+    volatile int days = 14;
+    volatile int paddingBytes;
+    volatile boolean scrambleGroups;
+
+    private final StubHttpServer mServer;
+
+    FixtureWeatherServer() throws IOException {
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws IOException {
+                return serve(request);
+            }
+        });
+    }
+
+    void start() {
+        mServer.start();
+    }
+
+    void shutdown() throws IOException, InterruptedException {
+        mServer.shutdown();
+    }
+
+    String getBaseUrl() {
+        return mServer.getBaseUrl();
+    }
+
+    int getRequestCount() {
+        return mServer.getRequestCount();
+    }
+
+    /**
+     * @return a source that fetches from this server, several locations per request
+     */
+    GroupWeatherSource newGroupSource(ForecastTransport transport) {
+        return new GroupWeatherSource(transport, getBaseUrl());
+    }
+
+    private StubHttpServer.Response serve(StubHttpServer.Request request) throws IOException {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+        }
+
+        StubHttpServer.Response response = new StubHttpServer.Response();
+        Uri uri = Uri.parse(request.path);
+        if (uri.getPath().endsWith(GROUP_PATH)) {
+            List<String> cities = new ArrayList<String>(uri.getQueryParameters("q"));
+            if (scrambleGroups && !cities.isEmpty()) {
+                cities.remove(0);
+                Collections.reverse(cities);
+            }
+            boolean[] found = new boolean[cities.size()];
+            for (int i = 0; i < found.length; i++) {
+                found[i] = !cities.get(i).startsWith(UNKNOWN_LOCATION_PREFIX);
+            }
+            response.body = ForecastFixtures.group(cities, found, days, paddingBytes)
+                    .getBytes("UTF-8");
+            return response;
+        }
+
+        String city = uri.getQueryParameter("q");
+        if (city == null || city.startsWith(UNKNOWN_LOCATION_PREFIX)) {
+            response.code = HttpURLConnection.HTTP_NOT_FOUND;
+            response.reason = "Not Found";
+            response.body = ForecastFixtures.notFound(city).getBytes("UTF-8");
+            return response;
+        }
+
+        byte[] body = ForecastFixtures.forecast(city, days, paddingBytes).getBytes("UTF-8");
+        String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+        if (etag.equals(request.header(HttpValidators.HEADER_IF_NONE_MATCH))) {
+            response.code = HttpURLConnection.HTTP_NOT_MODIFIED;
+            response.reason = "Not Modified";
+        } else {
+            response.body = body;
+        }
+        return response.header(HttpValidators.HEADER_ETAG, etag);
+    }
+}
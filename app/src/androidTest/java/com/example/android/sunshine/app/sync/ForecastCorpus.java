@@ -0,0 +1,158 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A set of recorded forecast payloads to replay through ingestion, one per city.
+ *
+ * Payloads are captured from the real service into {@link #getDirectory(Context)} as
+ * &lt;city&gt;.json.  To capture, push a file named {@link #CITIES_FILE} with one city per line
+ * to that directory and run TestForecastReplay; then pull the directory to keep the corpus.
+ * Without captured payloads, a corpus of any size can be generated from the recorded days in
+ * {@link ForecastFixtures}.
+ */
+class ForecastCorpus {
+    private static final String LOG_TAG = ForecastCorpus.class.getSimpleName();
+
+    static final String DIRECTORY = "forecast-fixtures";
+    static final String CITIES_FILE = "cities.txt";
+    private static final String PAYLOAD_SUFFIX = ".json";
+
+    final List<String> cities = new ArrayList<String>();
+    final List<byte[]> payloads = new ArrayList<byte[]>();
+
+    int size() {
+        return cities.size();
+    }
+
+    private void add(String city, byte[] payload) {
+        cities.add(city);
+        payloads.add(payload);
+    }
+
+    /**
+     * @return where captured payloads are kept; on external storage if there is any, so they
+     * can be pushed and pulled with adb
+     */
+    static File getDirectory(Context context) {
+        File directory = context.getExternalFilesDir(DIRECTORY);
+        if (directory == null) {
+            directory = new File(context.getFilesDir(), DIRECTORY);
+        }
+        directory.mkdirs();
+        return directory;
+    }
+
+    /**
+     * @return the captured payloads, sorted by city; empty if nothing was captured
+     */
+    static ForecastCorpus load(File directory) throws IOException {
+        ForecastCorpus corpus = new ForecastCorpus();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return corpus;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(PAYLOAD_SUFFIX)) {
+                corpus.add(name.substring(0, name.length() - PAYLOAD_SUFFIX.length()),
+                        readFully(new FileInputStream(file)));
+            }
+        }
+        return corpus;
+    }
+
+    /**
+     * @return a generated corpus of the given number of cities, each with days days
+     */
+    static ForecastCorpus synthetic(int cityCount, int days) throws IOException {
+        ForecastCorpus corpus = new ForecastCorpus();
+        for (int i = 0; i < cityCount; i++) {
+            String city = "city" + i;
+            corpus.add(city, ForecastFixtures.forecast(city, days, 0).getBytes("UTF-8"));
+        }
+        return corpus;
+    }
+
+    /**
+     * Fetches the current forecast of every city in {@link #CITIES_FILE} from the given source
+     * URL and stores the payloads as they came off the wire, decompressed.
+     *
+     * @return the number of payloads captured, or 0 if there is no list of cities
+     */
+    static int capture(Context context, String baseUrl) throws IOException {
+        File directory = getDirectory(context);
+        File citiesFile = new File(directory, CITIES_FILE);
+        if (!citiesFile.exists()) {
+            return 0;
+        }
+
+        List<String> cities = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(citiesFile));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() > 0) {
+                    cities.add(line.trim());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        ForecastTransport transport = new ForecastTransport(context);
+        OpenWeatherMapSource source = new OpenWeatherMapSource(transport, baseUrl);
+        int captured = 0;
+        for (String city : cities) {
+            ForecastTransport.Response response = transport.fetch(source.buildUrl(city), null,
+                    false, new SyncDeadline(SyncDeadline.READ_TIMEOUT_MILLIS));
+            try {
+                if (response.code != 200 || response.body == null) {
+                    Log.w(LOG_TAG, "Not capturing " + city + ": HTTP " + response.code);
+                    continue;
+                }
+                byte[] payload = readFully(response.body);
+                OutputStream out = new FileOutputStream(new File(directory, city + PAYLOAD_SUFFIX));
+                try {
+                    out.write(payload);
+                } finally {
+                    out.close();
+                }
+                captured++;
+            } finally {
+                response.close();
+            }
+        }
+        Log.i(LOG_TAG, "Captured " + captured + " of " + cities.size() + " cities to " + directory);
+        return captured;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Forecast payloads in the format of the OpenWeatherMap daily forecast API, assembled from days
+ * recorded from the real service.  The same arguments always give the same bytes.
+ */
+class ForecastFixtures {
+
+    // Recorded from api.openweathermap.org/data/2.5/forecast/daily for Mountain View, CA.
+    // The "dt" field is filled in per day.
+    private static final String[] RECORDED_DAYS = {
+            "\"temp\":{\"day\":12.5,\"min\":8.2,\"max\":14.1,\"night\":8.2,\"eve\":12.0,\"morn\":9.1}," +
+                    "\"pressure\":1017.5,\"humidity\":82,\"weather\":[{\"id\":500,\"main\":\"Rain\"," +
+                    "\"description\":\"light rain\",\"icon\":\"10d\"}],\"speed\":2.1,\"deg\":180," +
+                    "\"clouds\":80,\"rain\":1.5",
+            "\"temp\":{\"day\":13.0,\"min\":7.0,\"max\":15.5,\"night\":7.0,\"eve\":11.0,\"morn\":8.0}," +
+                    "\"pressure\":1020.0,\"humidity\":70,\"weather\":[{\"id\":800,\"main\":\"Clear\"," +
+                    "\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":1.0,\"deg\":90," +
+                    "\"clouds\":0",
+            "\"temp\":{\"day\":14.23,\"min\":9.87,\"max\":16.02,\"night\":9.87,\"eve\":13.4,\"morn\":10.1}," +
+                    "\"pressure\":1018.31,\"humidity\":76,\"weather\":[{\"id\":802,\"main\":\"Clouds\"," +
+                    "\"description\":\"scattered clouds\",\"icon\":\"03d\"}],\"speed\":3.26,\"deg\":292," +
+                    "\"clouds\":36",
+            "\"temp\":{\"day\":11.08,\"min\":6.45,\"max\":12.9,\"night\":6.45,\"eve\":10.2,\"morn\":7.33}," +
+                    "\"pressure\":1012.66,\"humidity\":91,\"weather\":[{\"id\":501,\"main\":\"Rain\"," +
+                    "\"description\":\"moderate rain\",\"icon\":\"10d\"}],\"speed\":5.71,\"deg\":161," +
+                    "\"clouds\":92,\"rain\":7.25",
+            "\"temp\":{\"day\":15.61,\"min\":8.9,\"max\":17.44,\"night\":8.9,\"eve\":14.8,\"morn\":9.02}," +
+                    "\"pressure\":1024.05,\"humidity\":64,\"weather\":[{\"id\":800,\"main\":\"Clear\"," +
+                    "\"description\":\"sky is clear\",\"icon\":\"01d\"}],\"speed\":1.82,\"deg\":315," +
+                    "\"clouds\":0",
+            "\"temp\":{\"day\":13.77,\"min\":10.2,\"max\":14.95,\"night\":10.2,\"eve\":12.6,\"morn\":10.8}," +
+                    "\"pressure\":1015.9,\"humidity\":85,\"weather\":[{\"id\":803,\"main\":\"Clouds\"," +
+                    "\"description\":\"broken clouds\",\"icon\":\"04d\"}],\"speed\":2.67,\"deg\":248," +
+                    "\"clouds\":64",
+            "\"temp\":{\"day\":10.35,\"min\":5.12,\"max\":11.6,\"night\":5.12,\"eve\":9.4,\"morn\":6.0}," +
+                    "\"pressure\":1009.2,\"humidity\":88,\"weather\":[{\"id\":520,\"main\":\"Rain\"," +
+                    "\"description\":\"light intensity shower rain\",\"icon\":\"09d\"}],\"speed\":6.4," +
+                    "\"deg\":203,\"clouds\":88,\"rain\":3.1"
+    };
+
+    private static final long FIRST_DAY = 1419033600L;
+    private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+    /**
+     * @param city Name reported for the city
+     * @param days Number of days in the forecast; the recorded days repeat as needed
+     * @param paddingBytes Size of an extra field added to every day, which the parser has to
+     *                     skip; use it to grow the payload
+     */
+    static String forecast(String city, int days, int paddingBytes) {
+        StringBuilder padding = new StringBuilder(paddingBytes);
+        for (int i = 0; i < paddingBytes; i++) {
+            padding.append((char) ('a' + i % 26));
+        }
+
+        StringBuilder json = new StringBuilder(days * (400 + paddingBytes));
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"").append(city).append("\",")
+                .append("\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},\"country\":\"US\",")
+                .append("\"population\":0},\"cod\":\"200\",\"message\":0.0128,\"cnt\":")
+                .append(days).append(",\"list\":[");
+        for (int i = 0; i < days; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"dt\":").append(FIRST_DAY + i * SECONDS_PER_DAY).append(',')
+                    .append(RECORDED_DAYS[i % RECORDED_DAYS.length]);
+            if (paddingBytes > 0) {
+                json.append(",\"padding\":\"").append(padding).append('"');
+            }
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * @return a group response with the forecast of every city; cities for which found is false
+     * get a "city not found" element instead, which echoes the query
+     */
+    static String group(List<String> cities, boolean[] found, int days, int paddingBytes) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"cod\":\"200\",\"cnt\":").append(cities.size()).append(",\"list\":[");
+        for (int i = 0; i < cities.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(found[i]
+                    ? forecast(cities.get(i), days, paddingBytes)
+                    : groupNotFound(cities.get(i)));
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String groupNotFound(String city) {
+        return String.format(Locale.US,
+                "{\"q\":\"%s\",\"cod\":\"404\",\"message\":\"Error: Not found city %s\"}",
+                city, city);
+    }
+
+    static String notFound(String city) {
+        return String.format(Locale.US,
+                "{\"cod\":\"404\",\"message\":\"Error: Not found city %s\"}", city);
+    }
+}
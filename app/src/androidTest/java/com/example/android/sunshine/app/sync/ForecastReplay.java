@@ -0,0 +1,146 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Debug;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Feeds a {@link ForecastCorpus} through the parser and
+ * {@link SunshineSyncAdapter#writeForecasts}, the way syncs ingest fetched forecasts, and
+ * measures it.  No network is involved.
+ *
+ * Payloads are ingested in syncs of a given number of cities, like a multi-location sync.
+ * Latencies are per payload for parsing and per sync for writing.
+ */
+class ForecastReplay {
+
+    /**
+     * What one replay measured.
+     */
+    static class Report {
+        int payloads;
+        int days;
+        int rowsWritten;
+        long totalNanos;
+        // Objects allocated on the replaying thread; -1 if the runtime doesn't count them
+        long allocations = -1;
+        long[] parseNanos;
+        long[] writeNanos;
+
+        double payloadsPerSecond() {
+            return payloads * 1e9 / totalNanos;
+        }
+
+        double daysPerSecond() {
+            return days * 1e9 / totalNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "%d payloads, %d days in %.1fms: %.0f payloads/s, %.0f days/s, "
+                            + "%.1f allocations/day; parse p50=%.2fms p99=%.2fms, "
+                            + "write p50=%.2fms p99=%.2fms",
+                    payloads, days, totalNanos / 1e6, payloadsPerSecond(), daysPerSecond(),
+                    allocations < 0 ? Float.NaN : (float) allocations / days,
+                    percentile(parseNanos, 50) / 1e6, percentile(parseNanos, 99) / 1e6,
+                    percentile(writeNanos, 50) / 1e6, percentile(writeNanos, 99) / 1e6);
+        }
+    }
+
+    private final Context mContext;
+    private final SunshineSyncAdapter mAdapter;
+
+    ForecastReplay(Context context) {
+        mContext = context;
+        mAdapter = new SunshineSyncAdapter(context, false);
+    }
+
+    /**
+     * Stores the location of every city in the corpus, so that a replay measures ingestion of
+     * forecasts rather than the one-time insertion of new locations.
+     */
+    void addLocations(ForecastCorpus corpus) {
+        ContentValues[] locations = new ContentValues[corpus.size()];
+        for (int i = 0; i < corpus.size(); i++) {
+            ContentValues values = new ContentValues();
+            values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, corpus.cities.get(i));
+            values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, corpus.cities.get(i));
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 0.0);
+            values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, 0.0);
+            locations[i] = values;
+        }
+        mContext.getContentResolver().bulkInsert(WeatherContract.LocationEntry.CONTENT_URI,
+                locations);
+    }
+
+    @SuppressWarnings("deprecation")
+    Report replay(ForecastCorpus corpus, int citiesPerSync) throws IOException, JSONException {
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        Report report = new Report();
+        report.payloads = corpus.size();
+        report.parseNanos = new long[corpus.size()];
+        report.writeNanos = new long[(corpus.size() + citiesPerSync - 1) / citiesPerSync];
+        // Replays aren't meant to be cut short
+        SyncDeadline deadline = new SyncDeadline(24 * 60 * 60 * 1000L);
+        List<LocationFetch> sync = new ArrayList<LocationFetch>(citiesPerSync);
+        // Only the forecast rows are replayed, without the sync's bookkeeping
+        ArrayList<ContentProviderOperation> noOperations = new ArrayList<ContentProviderOperation>();
+        List<ContentProviderResult> results = new ArrayList<ContentProviderResult>();
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        long start = System.nanoTime();
+        for (int i = 0; i < corpus.size(); i++) {
+            long parseStart = System.nanoTime();
+            Forecast forecast = ForecastParser.parse(
+                    new ByteArrayInputStream(corpus.payloads.get(i)));
+            report.parseNanos[i] = System.nanoTime() - parseStart;
+            report.days += forecast.days.size();
+            sync.add(new LocationFetch(corpus.cities.get(i), SunshineSyncAdapter.LOCATION_STATUS_OK,
+                    forecast, null));
+
+            if (sync.size() == citiesPerSync || i == corpus.size() - 1) {
+                long writeStart = System.nanoTime();
+                report.rowsWritten += mAdapter.writeForecasts(sync, julianStartDay,
+                        noOperations, results, new SyncTrace(), deadline);
+                report.writeNanos[i / citiesPerSync] = System.nanoTime() - writeStart;
+                sync.clear();
+            }
+        }
+        report.totalNanos = System.nanoTime() - start;
+        int allocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+        if (allocations > 0) {
+            report.allocations = allocations;
+        }
+        return report;
+    }
+
+    static long percentile(long[] values, int percentile) {
+        if (values.length == 0) {
+            return 0;
+        }
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+}
@@ -0,0 +1,185 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.example.android.sunshine.app.sync.SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+import static com.example.android.sunshine.app.sync.SunshineSyncAdapter.LOCATION_STATUS_OK;
+import static com.example.android.sunshine.app.sync.SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+import static com.example.android.sunshine.app.sync.SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+import static com.example.android.sunshine.app.sync.SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+
+/**
+ * A source that fetches several locations per request from the group path of a
+ * {@link FixtureWeatherServer}, to exercise the batching of the sync adapter.  Single locations
+ * go through {@link OpenWeatherMapSource}.
+ *
+ * A group response carries the forecasts of several locations: {"cnt":2,"list":[forecast,
+ * forecast]}.  Every element of the list has the format of a single forecast response,
+ * including its own "cod", and may echo the location query it answers as "q".  Elements can
+ * come in any order, so they are matched to their locations by that query or by city name.
+ */
+class GroupWeatherSource implements WeatherSource {
+    private static final String LOG_TAG = GroupWeatherSource.class.getSimpleName();
+
+    // The limit OWM puts on its group queries for current weather
+    static final int MAX_GROUP_SIZE = 20;
+
+    private static final String QUERY_PARAM = "q";
+    private static final String MESSAGE_CODE = "cod";
+    private static final String LIST = "list";
+    private static final String CITY = "city";
+    private static final String CITY_NAME = "name";
+
+    private final ForecastTransport mTransport;
+    private final String mBaseUrl;
+    private final OpenWeatherMapSource mSingle;
+
+    GroupWeatherSource(ForecastTransport transport, String baseUrl) {
+        mTransport = transport;
+        mBaseUrl = baseUrl;
+        mSingle = new OpenWeatherMapSource(transport, baseUrl);
+    }
+
+    /**
+     * @return the group query for the given locations; the "q" parameter is repeated
+     */
+    String buildGroupUrl(List<String> locationQueries) {
+        Uri.Builder builder = Uri.parse(mBaseUrl).buildUpon()
+                .appendEncodedPath(FixtureWeatherServer.GROUP_PATH);
+        for (String locationQuery : locationQueries) {
+            builder.appendQueryParameter(QUERY_PARAM, locationQuery);
+        }
+        return builder.build().toString();
+    }
+
+    @Override
+    public LocationFetch fetch(String locationQuery, HttpValidators ingested, boolean allowCached,
+                               SyncTrace trace, SyncDeadline deadline) {
+        return mSingle.fetch(locationQuery, ingested, allowCached, trace, deadline);
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return MAX_GROUP_SIZE;
+    }
+
+    @Override
+    public List<LocationFetch> fetchBatch(List<String> locationQueries, boolean allowCached,
+                                          SyncTrace trace, SyncDeadline deadline) {
+        ForecastTransport.Response response = null;
+        try {
+            response = mTransport.fetch(buildGroupUrl(locationQueries), null, allowCached,
+                    deadline);
+            trace.addStage(SyncTrace.STAGE_CONNECT, response.connectNanos);
+            trace.addStage(SyncTrace.STAGE_FIRST_BYTE, response.firstByteNanos);
+
+            long parseStart = SyncTrace.startStage();
+            JSONObject group = new JSONObject(readAll(response));
+            if (group.has(MESSAGE_CODE)
+                    && group.getInt(MESSAGE_CODE) != HttpURLConnection.HTTP_OK) {
+                return withStatus(locationQueries, LOCATION_STATUS_SERVER_DOWN);
+            }
+            JSONArray list = group.getJSONArray(LIST);
+            List<String> names = new ArrayList<String>(list.length());
+            List<Forecast> forecasts = new ArrayList<Forecast>(list.length());
+            for (int i = 0; i < list.length(); i++) {
+                JSONObject element = list.getJSONObject(i);
+                names.add(element.has(QUERY_PARAM) ? element.getString(QUERY_PARAM)
+                        : element.has(CITY) ? element.getJSONObject(CITY).optString(CITY_NAME, null)
+                        : null);
+                forecasts.add(ForecastParser.parse(
+                        new ByteArrayInputStream(element.toString().getBytes("UTF-8"))));
+            }
+            trace.endStage(SyncTrace.STAGE_PARSE, parseStart);
+
+            response.commit();
+            return match(locationQueries, names, forecasts);
+        } catch (IOException e) {
+            if (deadline.isStopped()) {
+                return withStatus(locationQueries, LOCATION_STATUS_UNKNOWN);
+            }
+            Log.e(LOG_TAG, "Error ", e);
+            return withStatus(locationQueries, LOCATION_STATUS_SERVER_DOWN);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            return withStatus(locationQueries, LOCATION_STATUS_SERVER_INVALID);
+        } finally {
+            if (response != null) {
+                response.close();
+                trace.addResponse(response.getWireBytes(), response.getBodyBytes());
+            }
+        }
+    }
+
+    /**
+     * Pairs the elements of a group response with the locations asked for, never by position.
+     * A location no element answers fails as
+     * {@link SunshineSyncAdapter#LOCATION_STATUS_SERVER_INVALID}.
+     *
+     * @param names The query or city name of every element
+     * @return the outcome of every location, in the order of locationQueries
+     */
+    private static List<LocationFetch> match(List<String> locationQueries, List<String> names,
+                                             List<Forecast> forecasts) {
+        Map<String, Forecast> byName = new HashMap<String, Forecast>(forecasts.size());
+        for (int i = 0; i < forecasts.size(); i++) {
+            if (names.get(i) != null && !byName.containsKey(matchKey(names.get(i)))) {
+                byName.put(matchKey(names.get(i)), forecasts.get(i));
+            }
+        }
+
+        List<LocationFetch> fetches = new ArrayList<LocationFetch>(locationQueries.size());
+        for (String locationQuery : locationQueries) {
+            Forecast forecast = byName.remove(matchKey(locationQuery));
+            if (forecast == null) {
+                fetches.add(new LocationFetch(locationQuery, LOCATION_STATUS_SERVER_INVALID));
+            } else if (forecast.messageCode == HttpURLConnection.HTTP_OK) {
+                fetches.add(new LocationFetch(locationQuery, LOCATION_STATUS_OK, forecast, null));
+            } else if (forecast.messageCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                fetches.add(new LocationFetch(locationQuery, LOCATION_STATUS_INVALID));
+            } else {
+                fetches.add(new LocationFetch(locationQuery, LOCATION_STATUS_SERVER_DOWN));
+            }
+        }
+        return fetches;
+    }
+
+    private static String matchKey(String name) {
+        return name.trim().toLowerCase(Locale.US);
+    }
+
+    private static List<LocationFetch> withStatus(List<String> locationQueries,
+                                                  @SunshineSyncAdapter.LocationStatus int status) {
+        List<LocationFetch> fetches = new ArrayList<LocationFetch>(locationQueries.size());
+        for (String locationQuery : locationQueries) {
+            fetches.add(new LocationFetch(locationQuery, status));
+        }
+        return fetches;
+    }
+
+    private static String readAll(ForecastTransport.Response response) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(response.body, "UTF-8"));
+        StringBuilder buffer = new StringBuilder();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            buffer.append(line).append('\n');
+        }
+        return buffer.toString();
+    }
+}
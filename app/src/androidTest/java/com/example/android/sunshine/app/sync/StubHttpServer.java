@@ -0,0 +1,139 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A tiny single-threaded HTTP/1.1 server bound to the loopback interface, used to exercise the
+ * sync code against deterministic responses without touching the real network.
+ *
+ * Every connection serves one request and is then closed.
+ */
+class StubHttpServer {
+
+    /**
+     * A request as seen by the stub.  Header names are stored lower case.
+     */
+    static class Request {
+        String method;
+        String path;
+        final Map<String, String> headers = new HashMap<String, String>();
+
+        String header(String name) {
+            return headers.get(name.toLowerCase());
+        }
+    }
+
+    /**
+     * A canned response.  Body may be null, e.g. for 304.
+     */
+    static class Response {
+        int code = 200;
+        String reason = "OK";
+        final Map<String, String> headers = new HashMap<String, String>();
+        byte[] body;
+
+        Response header(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+    }
+
+    interface Handler {
+        Response handle(Request request) throws IOException;
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Handler mHandler;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private Thread mThread;
+
+    StubHttpServer(Handler handler) throws IOException {
+        mHandler = handler;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    }
+
+    void start() {
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    try {
+                        Socket socket = mServerSocket.accept();
+                        try {
+                            serve(socket);
+                        } finally {
+                            socket.close();
+                        }
+                    } catch (IOException e) {
+                        // closed, or the client went away; keep serving until shutdown
+                    }
+                }
+            }
+        }, "StubHttpServer");
+        mThread.start();
+    }
+
+    void shutdown() throws IOException, InterruptedException {
+        mServerSocket.close();
+        if (mThread != null) {
+            mThread.join(5000);
+        }
+    }
+
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    private void serve(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+        String requestLine = in.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        String[] parts = requestLine.split(" ");
+        Request request = new Request();
+        request.method = parts[0];
+        request.path = parts.length > 1 ? parts[1] : "/";
+        String line;
+        while ((line = in.readLine()) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                request.headers.put(line.substring(0, colon).trim().toLowerCase(),
+                        line.substring(colon + 1).trim());
+            }
+        }
+        mRequestCount.incrementAndGet();
+
+        Response response = mHandler.handle(request);
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(response.code).append(' ').append(response.reason)
+                .append("\r\n");
+        for (Map.Entry<String, String> header : response.headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        int length = response.body == null ? 0 : response.body.length;
+        head.append("Content-Length: ").append(length).append("\r\n");
+        head.append("Connection: close\r\n\r\n");
+
+        OutputStream out = socket.getOutputStream();
+        out.write(head.toString().getBytes("ISO-8859-1"));
+        if (response.body != null) {
+            out.write(response.body);
+        }
+        out.flush();
+    }
+}
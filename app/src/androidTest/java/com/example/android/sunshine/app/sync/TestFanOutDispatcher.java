@@ -0,0 +1,88 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TestFanOutDispatcher extends AndroidTestCase {
+
+    public void testFailuresAndTimeoutsAreIsolated() throws Throwable {
+        final CountDownLatch delivered = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CountDownLatch hanging = new CountDownLatch(1);
+
+        FanOutDispatcher.Consumer failing =
+                new FanOutDispatcher.Consumer("failing", SyncTrace.STAGE_WIDGETS, 1000) {
+                    @Override
+                    void deliver() {
+                        throw new IllegalStateException("broken consumer");
+                    }
+                };
+        FanOutDispatcher.Consumer hung =
+                new FanOutDispatcher.Consumer("hung", SyncTrace.STAGE_NOTIFICATION, 200) {
+                    @Override
+                    void deliver() {
+                        try {
+                            hanging.await();
+                        } catch (InterruptedException e) {
+                            interrupted.countDown();
+                        }
+                    }
+                };
+        FanOutDispatcher.Consumer working =
+                new FanOutDispatcher.Consumer("working", SyncTrace.STAGE_MUZEI, 1000) {
+                    @Override
+                    void deliver() {
+                        delivered.countDown();
+                    }
+                };
+
+        SyncTrace trace = new SyncTrace();
+        long start = System.nanoTime();
+        new FanOutDispatcher().dispatch(Arrays.asList(failing, hung, working), trace);
+        assertTrue("Error: dispatch should not wait for the consumers",
+                System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+
+        assertTrue("Error: a failing consumer kept another from running",
+                delivered.await(5, TimeUnit.SECONDS));
+        assertTrue("Error: a hung consumer was not interrupted",
+                interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    public void testTimeoutsFireWhenEveryThreadHangs() throws Throwable {
+        final CountDownLatch hanging = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(FanOutDispatcher.MAX_THREADS);
+        final CountDownLatch delivered = new CountDownLatch(1);
+
+        List<FanOutDispatcher.Consumer> consumers = new ArrayList<FanOutDispatcher.Consumer>();
+        for (int i = 0; i < FanOutDispatcher.MAX_THREADS; i++) {
+            consumers.add(new FanOutDispatcher.Consumer("hung" + i, SyncTrace.STAGE_WIDGETS, 200) {
+                @Override
+                void deliver() {
+                    try {
+                        hanging.await();
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                }
+            });
+        }
+        // Queued behind the hung ones until they are interrupted
+        consumers.add(new FanOutDispatcher.Consumer("working", SyncTrace.STAGE_MUZEI, 5000) {
+            @Override
+            void deliver() {
+                delivered.countDown();
+            }
+        });
+
+        new FanOutDispatcher().dispatch(consumers, new SyncTrace());
+        assertTrue("Error: hung consumers holding every thread were not interrupted",
+                interrupted.await(5, TimeUnit.SECONDS));
+        assertTrue("Error: a consumer never got a thread back",
+                delivered.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.test.AndroidTestCase;
+
+public class TestForecastFreshness extends AndroidTestCase {
+    private static final long TTL = 4 * 60 * 60 * 1000;
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getSharedPreferences("sync_schedule", Context.MODE_PRIVATE).edit().clear().commit();
+        mContext.getSharedPreferences("sync_circuit", Context.MODE_PRIVATE).edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testSoftTtl() {
+        long now = 1000000000L;
+        assertTrue("Error: a forecast that was never synced should be revalidated",
+                ForecastFreshness.isStale(0, now, TTL));
+        assertFalse(ForecastFreshness.isStale(now - 1000, now, TTL));
+        assertFalse(ForecastFreshness.isStale(now - TTL + 1, now, TTL));
+        assertTrue(ForecastFreshness.isStale(now - TTL, now, TTL));
+        assertTrue("Error: a sync in the future means the clock was set back",
+                ForecastFreshness.isStale(now + 1000, now, TTL));
+    }
+
+    public void testSoftTtlFollowsSchedule() {
+        mContext.getSharedPreferences("sync_schedule", Context.MODE_PRIVATE).edit().clear().commit();
+        long defaultTtl = ForecastFreshness.getSoftTtlMillis(mContext);
+        assertEquals((SunshineSyncAdapter.SYNC_INTERVAL + SunshineSyncAdapter.SYNC_FLEXTIME) * 1000L,
+                defaultTtl);
+
+        // What the scheduler keeps after backing off for an unchanging forecast
+        mContext.getSharedPreferences("sync_schedule", Context.MODE_PRIVATE).edit()
+                .putInt("interval", SyncScheduler.MAX_INTERVAL)
+                .putInt("flex", SyncScheduler.MAX_INTERVAL / 3)
+                .commit();
+        long ttl = ForecastFreshness.getSoftTtlMillis(mContext);
+        assertEquals((SyncScheduler.MAX_INTERVAL + SyncScheduler.MAX_INTERVAL / 3) * 1000L, ttl);
+
+        long now = System.currentTimeMillis();
+        assertFalse("Error: data the backed-off sync isn't due for yet was revalidated",
+                ForecastFreshness.isStale(now - defaultTtl - 1000, now, ttl));
+    }
+
+    public void testNoRevalidationWhileCircuitOpen() {
+        mContext.getSharedPreferences("sync_circuit", Context.MODE_PRIVATE).edit().clear().commit();
+        SyncCircuitBreaker breaker = new SyncCircuitBreaker(mContext);
+        long now = System.currentTimeMillis();
+        breaker.record(SyncCircuitBreaker.FAILURE_THRESHOLD, SyncCircuitBreaker.FAILURE_THRESHOLD,
+                now);
+        assertEquals(SyncCircuitBreaker.STATE_OPEN, breaker.getState());
+
+        MatrixCursor never = new MatrixCursor(new String[]{"date", "last_synced"});
+        never.addRow(new Object[]{1L, 0L});
+        assertFalse("Error: revalidation asked for a sync while the circuit was open",
+                ForecastFreshness.revalidateIfStale(mContext, never, 1));
+        never.close();
+    }
+
+    public void testLastSyncedKeepsPosition() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"date", "last_synced"});
+        assertEquals(0, ForecastFreshness.getLastSynced(cursor, 1));
+
+        cursor.addRow(new Object[]{1L, 5000L});
+        cursor.addRow(new Object[]{2L, 5000L});
+        cursor.moveToPosition(1);
+        assertEquals(5000L, ForecastFreshness.getLastSynced(cursor, 1));
+        assertEquals(1, cursor.getPosition());
+        cursor.close();
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+public class TestForecastParser extends AndroidTestCase {
+
+    static final String FORECAST_JSON = "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\"," +
+            "\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},\"country\":\"US\",\"population\":0}," +
+            "\"cod\":\"200\",\"message\":0.0128,\"cnt\":2,\"list\":[" +
+            "{\"dt\":1419033600,\"temp\":{\"day\":12.5,\"min\":8.2,\"max\":14.1,\"night\":8.2," +
+            "\"eve\":12.0,\"morn\":9.1},\"pressure\":1017.5,\"humidity\":82," +
+            "\"weather\":[{\"id\":500,\"main\":\"Rain\",\"description\":\"light rain\",\"icon\":\"10d\"}]," +
+            "\"speed\":2.1,\"deg\":180,\"clouds\":80,\"rain\":1.5}," +
+            "{\"dt\":1419120000,\"temp\":{\"day\":13.0,\"min\":7.0,\"max\":15.5,\"night\":7.0," +
+            "\"eve\":11.0,\"morn\":8.0},\"pressure\":1020.0,\"humidity\":70," +
+            "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}]," +
+            "\"speed\":1.0,\"deg\":90,\"clouds\":0}]}";
+
+    static InputStream stream(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    public void testParseForecast() throws Throwable {
+        Forecast forecast = ForecastParser.parse(stream(FORECAST_JSON));
+
+        assertEquals(HttpURLConnection.HTTP_OK, forecast.messageCode);
+        assertEquals("Mountain View", forecast.cityName);
+        assertEquals(37.386051, forecast.cityLatitude, 1e-9);
+        assertEquals(-122.083847, forecast.cityLongitude, 1e-9);
+        assertEquals(2, forecast.days.size());
+
+        Forecast.Day day = forecast.days.get(0);
+        assertEquals(1017.5, day.pressure, 1e-9);
+        assertEquals(82, day.humidity);
+        assertEquals(2.1, day.windSpeed, 1e-9);
+        assertEquals(180.0, day.windDirection, 1e-9);
+        assertEquals(14.1, day.high, 1e-9);
+        assertEquals(8.2, day.low, 1e-9);
+        assertEquals("Rain", day.description);
+        assertEquals(500, day.weatherId);
+
+        assertEquals(800, forecast.days.get(1).weatherId);
+    }
+
+    public void testParseErrorCode() throws Throwable {
+        Forecast forecast = ForecastParser.parse(
+                stream("{\"cod\":\"404\",\"message\":\"Error: Not found city\"}"));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, forecast.messageCode);
+        assertTrue(forecast.days.isEmpty());
+    }
+
+    public void testParseIncompleteDay() throws Throwable {
+        try {
+            ForecastParser.parse(stream("{\"cod\":\"200\",\"city\":{\"name\":\"x\"," +
+                    "\"coord\":{\"lat\":1,\"lon\":2}},\"list\":[{\"pressure\":1000}]}"));
+            fail("Error: a day without temperatures should not parse");
+        } catch (JSONException expected) {
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+public class TestForecastReplay extends AndroidTestCase {
+    private static final String LOG_TAG = TestForecastReplay.class.getSimpleName();
+
+    private static final int DAYS = 16;
+    private static final int CITIES_PER_SYNC = 50;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearTables();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearTables();
+        super.tearDown();
+    }
+
+    private void clearTables() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * Replays the corpus once to warm up, then again into an empty weather table, and checks
+     * every day was stored.
+     */
+    private ForecastReplay.Report replay(ForecastCorpus corpus) throws Exception {
+        ForecastReplay replay = new ForecastReplay(mContext);
+        replay.addLocations(corpus);
+        replay.replay(corpus, CITIES_PER_SYNC);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+
+        ForecastReplay.Report report = replay.replay(corpus, CITIES_PER_SYNC);
+        assertEquals(corpus.size(), report.payloads);
+        assertEquals("Error: not every replayed day was written", report.days, report.rowsWritten);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry._ID}, null, null, null);
+        assertNotNull(cursor);
+        assertEquals(report.days, cursor.getCount());
+        cursor.close();
+        return report;
+    }
+
+    public void testReplaySyntheticCorpus() throws Exception {
+        ForecastReplay.Report report = replay(ForecastCorpus.synthetic(200, DAYS));
+        assertEquals(200 * DAYS, report.days);
+        Log.i(LOG_TAG, "Synthetic corpus: " + report);
+    }
+
+    public void testReplayLargeCorpus() throws Exception {
+        ForecastReplay.Report report = replay(ForecastCorpus.synthetic(2000, DAYS));
+        Log.i(LOG_TAG, "Large corpus: " + report);
+    }
+
+    /**
+     * Captures payloads if there is a list of cities, and replays whatever was captured.
+     */
+    public void testReplayCapturedCorpus() throws Exception {
+        ForecastCorpus.capture(mContext, OpenWeatherMapSource.DEFAULT_BASE_URL);
+        ForecastCorpus corpus = ForecastCorpus.load(ForecastCorpus.getDirectory(mContext));
+        if (corpus.size() == 0) {
+            Log.i(LOG_TAG, "No captured payloads in " + ForecastCorpus.getDirectory(mContext));
+            return;
+        }
+        Log.i(LOG_TAG, "Captured corpus: " + replay(corpus));
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.zip.GZIPOutputStream;
+
+public class TestForecastTransport extends AndroidTestCase {
+    private static final String TEST_ETAG = "\"forecast-v1\"";
+
+    private StubHttpServer mServer;
+    private String mLastAcceptEncoding;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteRecursively(new File(mContext.getCacheDir(), "forecast-responses"));
+
+        final byte[] gzipped = gzip(TestForecastParser.FORECAST_JSON.getBytes("UTF-8"));
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws IOException {
+                mLastAcceptEncoding = request.header("Accept-Encoding");
+                StubHttpServer.Response response = new StubHttpServer.Response();
+                if (TEST_ETAG.equals(request.header(HttpValidators.HEADER_IF_NONE_MATCH))) {
+                    response.code = HttpURLConnection.HTTP_NOT_MODIFIED;
+                    response.reason = "Not Modified";
+                } else {
+                    response.body = gzipped;
+                    response.header("Content-Encoding", "gzip");
+                }
+                return response.header(HttpValidators.HEADER_ETAG, TEST_ETAG)
+                        .header("Cache-Control", "max-age=600");
+            }
+        });
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private static final long TIMEOUT_MILLIS = 10 * 1000;
+
+    public void testGzipAndCache() throws Throwable {
+        ForecastTransport transport = new ForecastTransport(mContext);
+        String url = mServer.getBaseUrl() + "/data/2.5/forecast/daily?q=94043";
+        SyncDeadline deadline = new SyncDeadline(TIMEOUT_MILLIS);
+
+        // First fetch goes to the network, compressed, and fills the cache.
+        ForecastTransport.Response response = transport.fetch(url, null, true, deadline);
+        try {
+            assertEquals(ForecastTransport.SOURCE_NETWORK, response.source);
+            assertEquals("gzip", mLastAcceptEncoding);
+            assertEquals("Mountain View", ForecastParser.parse(response.body).cityName);
+            response.commit();
+        } finally {
+            response.close();
+        }
+
+        // A manual refresh within max-age is served from disk.
+        response = transport.fetch(url, null, true, deadline);
+        try {
+            assertEquals(ForecastTransport.SOURCE_CACHE, response.source);
+            assertEquals(2, ForecastParser.parse(response.body).days.size());
+        } finally {
+            response.close();
+        }
+        assertEquals("Error: a fresh cache hit should not touch the network",
+                1, mServer.getRequestCount());
+
+        // ... and reports not-modified if the caller already has that version.
+        response = transport.fetch(url, new HttpValidators(TEST_ETAG, null), true, deadline);
+        assertEquals(ForecastTransport.SOURCE_NOT_MODIFIED, response.source);
+        response.close();
+
+        // A scheduled sync revalidates; the 304 is answered with the cached body.
+        response = transport.fetch(url, null, false, deadline);
+        try {
+            assertEquals(ForecastTransport.SOURCE_CACHE, response.source);
+            assertEquals(HttpURLConnection.HTTP_NOT_MODIFIED, response.code);
+            assertEquals("Mountain View", ForecastParser.parse(response.body).cityName);
+        } finally {
+            response.close();
+        }
+        assertEquals(2, mServer.getRequestCount());
+    }
+
+    public void testParseMaxAge() {
+        assertEquals(60000, ForecastTransport.parseMaxAge("public, max-age=60"));
+        assertEquals(0, ForecastTransport.parseMaxAge("no-store"));
+        assertEquals(ForecastTransport.DEFAULT_MAX_AGE_MILLIS, ForecastTransport.parseMaxAge(null));
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(out);
+        gzip.write(bytes);
+        gzip.close();
+        return out.toByteArray();
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
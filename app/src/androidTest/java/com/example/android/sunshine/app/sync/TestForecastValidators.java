@@ -0,0 +1,77 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+public class TestForecastValidators extends AndroidTestCase {
+    private static final String TEST_LOCATION = "99705";
+    private static final String TEST_ETAG = "\"forecast-v1\"";
+    private static final String TEST_LAST_MODIFIED = "Sat, 20 Dec 2014 00:00:00 GMT";
+
+    private StubHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        new ForecastValidators(mContext).clear(TEST_LOCATION);
+        // Answers 304 when the client presents the current ETag, the full body otherwise.
+        mServer = new StubHttpServer(new StubHttpServer.Handler() {
+            @Override
+            public StubHttpServer.Response handle(StubHttpServer.Request request) throws IOException {
+                StubHttpServer.Response response = new StubHttpServer.Response();
+                if (TEST_ETAG.equals(request.header(HttpValidators.HEADER_IF_NONE_MATCH))) {
+                    response.code = HttpURLConnection.HTTP_NOT_MODIFIED;
+                    response.reason = "Not Modified";
+                } else {
+                    response.body = TestForecastParser.FORECAST_JSON.getBytes("UTF-8");
+                }
+                return response.header(HttpValidators.HEADER_ETAG, TEST_ETAG)
+                        .header(HttpValidators.HEADER_LAST_MODIFIED, TEST_LAST_MODIFIED);
+            }
+        });
+        mServer.start();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        new ForecastValidators(mContext).clear(TEST_LOCATION);
+        super.tearDown();
+    }
+
+    private int fetch(ForecastValidators validators) throws IOException {
+        HttpURLConnection connection =
+                (HttpURLConnection) new URL(mServer.getBaseUrl() + "/forecast").openConnection();
+        try {
+            HttpValidators stored = validators.get(TEST_LOCATION);
+            if (stored != null) {
+                stored.addTo(connection);
+            }
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_OK) {
+                validators.save(TEST_LOCATION, HttpValidators.from(connection));
+            }
+            return code;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    public void testConditionalGet() throws Throwable {
+        ForecastValidators validators = new ForecastValidators(mContext);
+        assertEquals("Error: first request should be unconditional",
+                HttpURLConnection.HTTP_OK, fetch(validators));
+
+        // A fresh instance reads the validators back from the preferences
+        assertEquals("Error: stored validators were not sent",
+                HttpURLConnection.HTTP_NOT_MODIFIED, fetch(new ForecastValidators(mContext)));
+
+        validators.clear(TEST_LOCATION);
+        assertEquals("Error: cleared validators were still sent",
+                HttpURLConnection.HTTP_OK, fetch(validators));
+        assertEquals(3, mServer.getRequestCount());
+    }
+}
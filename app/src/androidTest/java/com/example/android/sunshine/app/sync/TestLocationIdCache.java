@@ -0,0 +1,96 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SyncResult;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Arrays;
+import java.util.Map;
+
+public class TestLocationIdCache extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long insertLocation(String locationSetting) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, locationSetting);
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, 64.7488);
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -147.353);
+        return ContentUris.parseId(mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, values));
+    }
+
+    public void testResolveAll() {
+        long mountainView = insertLocation("94043");
+        long northPole = insertLocation("99705");
+
+        LocationIdCache cache = LocationIdCache.getInstance(mContext);
+        cache.invalidate();
+        Map<String, Long> ids = cache.resolveAll(Arrays.asList("94043", "99705", "10001"));
+        assertEquals(2, ids.size());
+        assertEquals(mountainView, (long) ids.get("94043"));
+        assertEquals(northPole, (long) ids.get("99705"));
+        assertEquals(-1, cache.get("10001"));
+    }
+
+    public void testInvalidatedByLocationChanges() {
+        LocationIdCache cache = LocationIdCache.getInstance(mContext);
+        cache.invalidate();
+        assertEquals(-1, cache.get("10001"));
+
+        // The change notification arrives on a binder thread, so give it a moment
+        long newYork = insertLocation("10001");
+        long deadline = SystemClock.uptimeMillis() + 5000;
+        while (cache.get("10001") == -1 && SystemClock.uptimeMillis() < deadline) {
+            SystemClock.sleep(20);
+        }
+        assertEquals("Error: a new location was not picked up", newYork, cache.get("10001"));
+    }
+
+    public void testSyncDoesNotRereadTable() throws Exception {
+        mContext.getSharedPreferences("sync_quota", Context.MODE_PRIVATE).edit().clear().commit();
+        FixtureWeatherServer server = new FixtureWeatherServer();
+        server.start();
+        try {
+            server.days = 7;
+            SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false,
+                    new OpenWeatherMapSource(new ForecastTransport(mContext), server.getBaseUrl()));
+            String location = Utility.getPreferredLocation(mContext);
+            LocationIdCache cache = LocationIdCache.getInstance(mContext);
+
+            // The first sync adds the location; let its notification arrive, then read the table
+            sync(adapter);
+            SystemClock.sleep(500);
+            assertTrue(cache.get(location) != -1);
+            int reads = cache.getReadCount();
+
+            // The second one only updates it
+            sync(adapter);
+            SystemClock.sleep(500);
+            assertTrue(cache.get(location) != -1);
+            assertEquals("Error: a sync made the location table be read again",
+                    reads, cache.getReadCount());
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private void sync(SunshineSyncAdapter adapter) {
+        adapter.onPerformSync(null, new Bundle(), mContext.getString(R.string.content_authority),
+                null, new SyncResult());
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.android.sunshine.app.sync;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+import java.io.File;
+
+public class TestNotificationArtCache extends AndroidTestCase {
+    private static final int SIZE = 40;
+
+    public void testRenderedOnceAndStoredScaled() {
+        NotificationArtCache cache = NotificationArtCache.getInstance(mContext);
+
+        Bitmap first = cache.get(800, SIZE, SIZE);
+        assertNotNull("Error: no art for a clear sky", first);
+        assertTrue(first.getWidth() <= SIZE && first.getHeight() <= SIZE);
+
+        assertSame("Error: the second lookup should come from memory",
+                first, cache.get(800, SIZE, SIZE));
+
+        File[] stored = new File(mContext.getCacheDir(), "notification_art").listFiles();
+        assertNotNull(stored);
+        assertTrue("Error: the rendered art was not written to disk", stored.length > 0);
+    }
+
+    public void testWarmKeepsNonSquareArt() {
+        NotificationArtCache cache = NotificationArtCache.getInstance(mContext);
+        File directory = new File(mContext.getCacheDir(), "notification_art");
+
+        // The art is square, so fitting it into this leaves it shorter than requested
+        cache.warm(SIZE, 2 * SIZE);
+        File[] stored = directory.listFiles();
+        assertNotNull(stored);
+        assertTrue("Error: warm() deleted the art it had just rendered", stored.length > 0);
+
+        // Warming again finds everything on disk and keeps it
+        cache.warm(SIZE, 2 * SIZE);
+        File[] again = directory.listFiles();
+        assertNotNull(again);
+        assertEquals(stored.length, again.length);
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+public class TestSyncCircuitBreaker extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearState();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearState();
+        super.tearDown();
+    }
+
+    private void clearState() {
+        mContext.getSharedPreferences("sync_circuit", Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    public void testOpensAndProbes() {
+        SyncCircuitBreaker breaker = new SyncCircuitBreaker(mContext);
+        long now = 1000000L;
+
+        long lastRetryAt = now;
+        for (int i = 0; i < SyncCircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            assertEquals(SyncCircuitBreaker.PERMIT_ALL, breaker.acquire(now));
+            long retryAt = breaker.record(1, 1, now);
+            assertTrue("Error: failures should be backed off", retryAt > now);
+            assertEquals(SyncCircuitBreaker.STATE_CLOSED, breaker.getState());
+            lastRetryAt = retryAt;
+        }
+
+        long openUntil = breaker.record(1, 1, now);
+        assertEquals(SyncCircuitBreaker.STATE_OPEN, breaker.getState());
+        assertTrue(openUntil > lastRetryAt);
+
+        // A fresh instance reads the same state, like a restarted process would
+        breaker = new SyncCircuitBreaker(mContext);
+        assertEquals(SyncCircuitBreaker.PERMIT_NONE, breaker.acquire(openUntil - 1));
+        assertEquals(SyncCircuitBreaker.PERMIT_PROBE, breaker.acquire(openUntil));
+
+        // A failed probe re-opens the circuit for longer
+        long reopenedUntil = breaker.record(1, 1, openUntil);
+        assertEquals(SyncCircuitBreaker.STATE_OPEN, breaker.getState());
+        assertTrue(reopenedUntil - openUntil > (openUntil - now) / 2);
+
+        // ... and a successful one closes it
+        assertEquals(SyncCircuitBreaker.PERMIT_PROBE, breaker.acquire(reopenedUntil));
+        assertEquals(0, breaker.record(1, 0, reopenedUntil));
+        assertEquals(SyncCircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertEquals(SyncCircuitBreaker.PERMIT_ALL, breaker.acquire(reopenedUntil));
+    }
+
+    public void testFailedSyncCountsOnce() {
+        SyncCircuitBreaker breaker = new SyncCircuitBreaker(mContext);
+        long now = 1000000L;
+        int locations = 2 * SyncCircuitBreaker.FAILURE_THRESHOLD;
+
+        // However many locations a sync fails, it is one step of backoff
+        long retryAt = breaker.record(locations, locations, now);
+        assertEquals(SyncCircuitBreaker.STATE_CLOSED, breaker.getState());
+        assertTrue(retryAt > now);
+        assertTrue(retryAt <= now + SyncCircuitBreaker.backoff(1));
+
+        for (int i = 1; i < SyncCircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            breaker.record(locations, locations, now);
+            assertEquals(SyncCircuitBreaker.STATE_CLOSED, breaker.getState());
+        }
+        breaker.record(locations, locations, now);
+        assertEquals(SyncCircuitBreaker.STATE_OPEN, breaker.getState());
+    }
+
+    public void testBackoffIsCapped() {
+        assertEquals(0, SyncCircuitBreaker.backoff(0));
+        assertEquals(SyncCircuitBreaker.BASE_DELAY_MILLIS, SyncCircuitBreaker.backoff(1));
+        assertEquals(2 * SyncCircuitBreaker.BASE_DELAY_MILLIS, SyncCircuitBreaker.backoff(2));
+        assertEquals(SyncCircuitBreaker.MAX_DELAY_MILLIS, SyncCircuitBreaker.backoff(100));
+    }
+}
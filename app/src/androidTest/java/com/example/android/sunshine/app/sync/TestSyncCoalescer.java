@@ -0,0 +1,118 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.util.Collections;
+
+public class TestSyncCoalescer extends AndroidTestCase {
+    private static final String SAVED_LOCATION = "10001";
+
+    private SyncCoalescer mCoalescer;
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mUnits = PreferenceManager.getDefaultSharedPreferences(mContext)
+                .getString(mContext.getString(R.string.pref_units_key), null);
+        Utility.setSavedLocations(mContext, Collections.<String>emptyList());
+        mCoalescer = SyncCoalescer.getInstance(mContext);
+        mCoalescer.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCoalescer.reset();
+        Utility.setSavedLocations(mContext, Collections.<String>emptyList());
+        setUnits(mUnits);
+        super.tearDown();
+    }
+
+    public void testExecutesWithoutRecentSync() {
+        assertEquals(SyncCoalescer.OUTCOME_EXECUTE, mCoalescer.request());
+    }
+
+    public void testCoalescesRepeatWithinWindow() {
+        assertEquals(SyncCoalescer.OUTCOME_EXECUTE, mCoalescer.request());
+        assertEquals("Error: the same request twice in a row should be dropped",
+                SyncCoalescer.OUTCOME_COALESCED, mCoalescer.request());
+        assertTrue(SyncCoalescer.describe(mContext).contains("coalesced=1"));
+    }
+
+    public void testServesLastSyncWhenFresh() {
+        mCoalescer.onSyncFinished(Utility.getSyncLocations(mContext));
+        assertEquals(SyncCoalescer.OUTCOME_SERVE_LAST_SYNC, mCoalescer.request());
+        assertTrue(SyncCoalescer.describe(mContext).contains("servedLastSync=1"));
+    }
+
+    public void testExecutesWhenSavedLocationStale() {
+        Utility.setSavedLocations(mContext, Collections.singletonList(SAVED_LOCATION));
+        mCoalescer.onSyncFinished(
+                Collections.singletonList(Utility.getPreferredLocation(mContext)));
+        assertEquals("Error: a saved location that never synced should be fetched",
+                SyncCoalescer.OUTCOME_EXECUTE, mCoalescer.request());
+
+        mCoalescer.reset();
+        mCoalescer.onSyncFinished(Utility.getSyncLocations(mContext));
+        mContext.getSharedPreferences("sync_coalescer", Context.MODE_PRIVATE).edit()
+                .putLong(SyncCoalescer.PREF_SYNCED_AT_PREFIX + SAVED_LOCATION,
+                        System.currentTimeMillis() - SyncCoalescer.STALENESS_MILLIS - 1)
+                .commit();
+        assertEquals("Error: a saved location synced too long ago should be fetched",
+                SyncCoalescer.OUTCOME_EXECUTE, mCoalescer.request());
+    }
+
+    public void testCoalescesWhileInFlight() {
+        mCoalescer.onSyncStarted();
+        assertEquals("Error: a request for the running sync should be dropped",
+                SyncCoalescer.OUTCOME_COALESCED, mCoalescer.request());
+        assertEquals(SyncCoalescer.OUTCOME_COALESCED, mCoalescer.request());
+
+        // The sync failed, so the next request has nothing to be answered with
+        mCoalescer.onSyncFinished(Collections.<String>emptyList());
+        assertEquals(SyncCoalescer.OUTCOME_EXECUTE, mCoalescer.request());
+    }
+
+    public void testKeyChangeIsNotCoalesced() {
+        setUnits(mContext.getString(R.string.pref_units_metric));
+        assertEquals(SyncCoalescer.OUTCOME_EXECUTE, mCoalescer.request());
+
+        setUnits(mContext.getString(R.string.pref_units_imperial));
+        assertEquals("Error: a units change should not be dropped",
+                SyncCoalescer.OUTCOME_EXECUTE, mCoalescer.request());
+
+        Utility.setSavedLocations(mContext, Collections.singletonList(SAVED_LOCATION));
+        assertEquals("Error: a change of locations should not be dropped",
+                SyncCoalescer.OUTCOME_EXECUTE, mCoalescer.request());
+
+        mCoalescer.onSyncStarted();
+        Utility.setSavedLocations(mContext, Collections.<String>emptyList());
+        assertEquals("Error: a running sync for other locations should not drop the request",
+                SyncCoalescer.OUTCOME_EXECUTE, mCoalescer.request());
+    }
+
+    public void testForcedRequestExecutes() {
+        mCoalescer.onSyncFinished(Utility.getSyncLocations(mContext));
+        assertEquals(SyncCoalescer.OUTCOME_EXECUTE, mCoalescer.request(true));
+        assertEquals(SyncCoalescer.OUTCOME_EXECUTE, mCoalescer.request(true));
+        assertTrue(SyncCoalescer.describe(mContext).contains("executed=2"));
+    }
+
+    private void setUnits(String units) {
+        SharedPreferences.Editor editor =
+                PreferenceManager.getDefaultSharedPreferences(mContext).edit();
+        String key = mContext.getString(R.string.pref_units_key);
+        if (units == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, units);
+        }
+        editor.commit();
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+public class TestSyncQuota extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearState();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearState();
+        super.tearDown();
+    }
+
+    private void clearState() {
+        mContext.getSharedPreferences("sync_quota", Context.MODE_PRIVATE).edit().clear().commit();
+    }
+
+    public void testUserRequestsPreemptBackground() {
+        SyncQuota quota = new SyncQuota(mContext);
+        long now = 1000000L;
+
+        // Background requests stop short of the reserve
+        int background = SyncQuota.CAPACITY - SyncQuota.USER_RESERVE;
+        assertEquals(background, quota.acquire(SyncQuota.PRIORITY_BACKGROUND, background + 5, now));
+        assertEquals(0, quota.acquire(SyncQuota.PRIORITY_BACKGROUND, 1, now));
+
+        // ... which the user still gets
+        assertEquals(SyncQuota.USER_RESERVE,
+                quota.acquire(SyncQuota.PRIORITY_USER, SyncQuota.USER_RESERVE, now));
+        assertEquals("Error: an empty bucket should deny user requests too",
+                0, quota.acquire(SyncQuota.PRIORITY_USER, 1, now));
+
+        long availableAt = quota.getBackgroundAvailableAt(1, now);
+        assertEquals(now + (SyncQuota.USER_RESERVE + 1) * SyncQuota.REFILL_INTERVAL_MILLIS,
+                availableAt);
+        assertEquals(1, quota.acquire(SyncQuota.PRIORITY_BACKGROUND, 1, availableAt));
+
+        String stats = SyncQuota.describe(mContext);
+        assertTrue(stats, stats.contains("denied=1"));
+        assertTrue(stats, stats.contains("deferred=6"));
+    }
+
+    public void testRefillIsCapped() {
+        SyncQuota quota = new SyncQuota(mContext);
+        long now = 1000000L;
+        assertEquals(SyncQuota.CAPACITY,
+                quota.acquire(SyncQuota.PRIORITY_USER, SyncQuota.CAPACITY, now));
+
+        long muchLater = now + 100 * SyncQuota.CAPACITY * SyncQuota.REFILL_INTERVAL_MILLIS;
+        assertEquals(SyncQuota.CAPACITY,
+                quota.acquire(SyncQuota.PRIORITY_USER, SyncQuota.CAPACITY + 10, muchLater));
+
+        // A clock set back doesn't refill anything
+        assertEquals(0, quota.acquire(SyncQuota.PRIORITY_USER, 1, now));
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+public class TestSyncScheduler extends AndroidTestCase {
+
+    private static SyncScheduler.Conditions afternoon(int changes, int samples) {
+        SyncScheduler.Conditions conditions = new SyncScheduler.Conditions();
+        conditions.changes = changes;
+        conditions.samples = samples;
+        conditions.hourOfDay = 14;
+        conditions.connected = true;
+        return conditions;
+    }
+
+    public void testBacksOffWhenStable() {
+        int learning = SyncScheduler.decide(afternoon(0, 2)).intervalSeconds;
+        assertEquals("Error: too few samples should keep the default interval",
+                SunshineSyncAdapter.SYNC_INTERVAL, learning);
+
+        int volatileInterval = SyncScheduler.decide(afternoon(6, 8)).intervalSeconds;
+        int stable = SyncScheduler.decide(afternoon(1, 8)).intervalSeconds;
+        int unchanged = SyncScheduler.decide(afternoon(0, 8)).intervalSeconds;
+        assertTrue(volatileInterval < SunshineSyncAdapter.SYNC_INTERVAL);
+        assertTrue(stable > SunshineSyncAdapter.SYNC_INTERVAL);
+        assertEquals(SyncScheduler.MAX_INTERVAL, unchanged);
+    }
+
+    public void testChargingAndMetered() {
+        SyncScheduler.Conditions conditions = afternoon(1, 8);
+        int plain = SyncScheduler.decide(conditions).intervalSeconds;
+
+        conditions.charging = true;
+        assertTrue(SyncScheduler.decide(conditions).intervalSeconds < plain);
+
+        conditions.charging = false;
+        conditions.metered = true;
+        assertTrue(SyncScheduler.decide(conditions).intervalSeconds > plain);
+    }
+
+    public void testLandsInMorningWindow() {
+        // 23:00 with a stable forecast would otherwise sleep until well past 6:00
+        SyncScheduler.Conditions conditions = afternoon(0, 8);
+        conditions.hourOfDay = 23;
+        SyncScheduler.Decision decision = SyncScheduler.decide(conditions);
+
+        int earliest = decision.intervalSeconds - decision.flexSeconds;
+        assertEquals("Error: sync should not run before the morning window",
+                7 * 60 * 60, earliest);
+        assertEquals(SyncScheduler.MORNING_WINDOW, decision.flexSeconds);
+        assertTrue(decision.reason.contains("morning"));
+    }
+}
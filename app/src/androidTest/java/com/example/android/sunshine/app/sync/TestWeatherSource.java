@@ -0,0 +1,239 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.Context;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class TestWeatherSource extends AndroidTestCase {
+    private static final long TIMEOUT_MILLIS = 10 * 1000;
+
+    private FixtureWeatherServer mServer;
+    private OpenWeatherMapSource mSource;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new FixtureWeatherServer();
+        mServer.start();
+        mSource = new OpenWeatherMapSource(new ForecastTransport(mContext), mServer.getBaseUrl());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    public void testOpenWeatherMapSource() {
+        SyncDeadline deadline = new SyncDeadline(TIMEOUT_MILLIS);
+        LocationFetch fetch = mSource.fetch("94043", null, false, new SyncTrace(), deadline);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, fetch.status);
+        assertEquals("94043", fetch.forecast.cityName);
+        assertEquals(14, fetch.forecast.days.size());
+
+        // Same version again: nothing to parse
+        LocationFetch again = mSource.fetch("94043", fetch.validators, false, new SyncTrace(),
+                deadline);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, again.status);
+        assertNull(again.forecast);
+
+        LocationFetch unknown = mSource.fetch(FixtureWeatherServer.UNKNOWN_LOCATION_PREFIX + "-1",
+                null, false, new SyncTrace(), deadline);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, unknown.status);
+    }
+
+    public void testDeadlineStopsStalledFetch() {
+        mServer.latencyMillis = 3000;
+        long start = System.currentTimeMillis();
+        LocationFetch fetch = mSource.fetch("94043", null, false, new SyncTrace(),
+                new SyncDeadline(300));
+        assertEquals("Error: a stopped fetch should not blame the server",
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, fetch.status);
+        assertTrue("Error: the fetch ran past its deadline",
+                System.currentTimeMillis() - start < 2000);
+
+        SyncDeadline canceled = new SyncDeadline(TIMEOUT_MILLIS);
+        canceled.cancel();
+        int requests = mServer.getRequestCount();
+        fetch = mSource.fetch("94043", null, false, new SyncTrace(), canceled);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, fetch.status);
+        assertEquals("Error: a canceled sync should not send requests",
+                requests, mServer.getRequestCount());
+    }
+
+    public void testSyncFromStubServer() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mServer.days = 7;
+        mServer.paddingBytes = 256;
+
+        long start = System.currentTimeMillis();
+        SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false, mSource);
+        adapter.onPerformSync(null, new Bundle(), mContext.getString(R.string.content_authority),
+                null, new SyncResult());
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(Utility.getPreferredLocation(mContext)),
+                new String[]{WeatherContract.LocationEntry.COLUMN_LAST_SYNCED}, null, null, null);
+        assertNotNull(cursor);
+        assertEquals("Error: the synced forecast was not stored", 7, cursor.getCount());
+        long lastSynced = ForecastFreshness.getLastSynced(cursor, 0);
+        assertTrue("Error: the sync didn't record when it confirmed the forecast",
+                lastSynced >= start);
+        assertFalse(ForecastFreshness.isStale(lastSynced, System.currentTimeMillis(),
+                ForecastFreshness.getSoftTtlMillis(mContext)));
+        cursor.close();
+
+        SyncTrace trace = SyncTraceLog.getRecent().get(0);
+        assertTrue("Error: parse time was not traced",
+                trace.getStageNanos(SyncTrace.STAGE_PARSE) > 0);
+        assertTrue(trace.getStageNanos(SyncTrace.STAGE_BULK_INSERT) > 0);
+    }
+
+    public void testStoppedSyncAddsNoLocation() {
+        String location = "stopped-1";
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{location});
+        LocationFetch fetch = mSource.fetch(location, null, false, new SyncTrace(),
+                new SyncDeadline(TIMEOUT_MILLIS));
+        assertNotNull(fetch.forecast);
+
+        SyncDeadline canceled = new SyncDeadline(TIMEOUT_MILLIS);
+        canceled.cancel();
+        SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false, mSource);
+        try {
+            adapter.writeForecasts(Collections.singletonList(fetch),
+                    Time.getJulianDay(System.currentTimeMillis(), 0),
+                    new ArrayList<ContentProviderOperation>(),
+                    new ArrayList<ContentProviderResult>(), new SyncTrace(), canceled);
+            fail("Error: a canceled sync went on writing");
+        } catch (SyncDeadline.StoppedException e) {
+            // expected
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI, null,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{location}, null);
+        assertNotNull(cursor);
+        assertEquals("Error: a canceled sync added a location", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testSavedLocationChangeFetchesNewLocation() {
+        mContext.getSharedPreferences("sync_quota", Context.MODE_PRIVATE).edit().clear().commit();
+        // The preferred location was just synced, so an ordinary request would only republish
+        SyncCoalescer.getInstance(mContext).onSyncFinished(
+                Collections.singletonList(Utility.getPreferredLocation(mContext)));
+
+        String added = "10001";
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .remove(Utility.getLocationStatusKey(mContext, added)).commit();
+        Utility.setSavedLocations(mContext, Collections.singletonList(added));
+        try {
+            // What settings asks for when the saved locations change
+            Bundle extras = SunshineSyncAdapter.getSyncExtras(mContext, true, true);
+            assertNotNull("Error: the sync for a changed location list was coalesced", extras);
+
+            int requests = mServer.getRequestCount();
+            SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false, mSource);
+            adapter.onPerformSync(null, extras, mContext.getString(R.string.content_authority),
+                    null, new SyncResult());
+            assertTrue("Error: the sync didn't go to the network",
+                    mServer.getRequestCount() > requests);
+            assertEquals("Error: the added location was not fetched",
+                    SunshineSyncAdapter.LOCATION_STATUS_OK,
+                    Utility.getLocationStatus(mContext, added));
+        } finally {
+            Utility.setSavedLocations(mContext, Collections.<String>emptyList());
+        }
+    }
+
+    public void testGroupFetch() {
+        GroupWeatherSource source = mServer.newGroupSource(new ForecastTransport(mContext));
+        List<String> locations = Arrays.asList("94043",
+                FixtureWeatherServer.UNKNOWN_LOCATION_PREFIX + "-1", "10001");
+        int requests = mServer.getRequestCount();
+
+        List<LocationFetch> fetches = source.fetchBatch(locations, false, new SyncTrace(),
+                new SyncDeadline(TIMEOUT_MILLIS));
+        assertEquals("Error: a group should be fetched with one request",
+                requests + 1, mServer.getRequestCount());
+        assertEquals(3, fetches.size());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, fetches.get(0).status);
+        assertEquals("94043", fetches.get(0).forecast.cityName);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, fetches.get(1).status);
+        assertEquals("10001", fetches.get(2).locationSetting);
+        assertEquals(14, fetches.get(2).forecast.days.size());
+    }
+
+    public void testGroupResponseMatchedByCity() {
+        mServer.scrambleGroups = true;
+        GroupWeatherSource source = mServer.newGroupSource(new ForecastTransport(mContext));
+        List<String> locations = Arrays.asList("94043", "10001",
+                FixtureWeatherServer.UNKNOWN_LOCATION_PREFIX + "-1", "99705");
+
+        List<LocationFetch> fetches = source.fetchBatch(locations, false, new SyncTrace(),
+                new SyncDeadline(TIMEOUT_MILLIS));
+        assertEquals(4, fetches.size());
+        assertEquals("Error: a location left out of the response should fail",
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID, fetches.get(0).status);
+        assertNull(fetches.get(0).forecast);
+        for (int i = 1; i < 4; i++) {
+            assertEquals(locations.get(i), fetches.get(i).locationSetting);
+        }
+        assertEquals("10001", fetches.get(1).forecast.cityName);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_INVALID, fetches.get(2).status);
+        assertEquals("99705", fetches.get(3).forecast.cityName);
+    }
+
+    public void testGroupSyncRoundTrips() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getSharedPreferences("sync_quota", Context.MODE_PRIVATE).edit().clear().commit();
+        mServer.days = 7;
+
+        int saved = GroupWeatherSource.MAX_GROUP_SIZE + 5;
+        List<String> locations = new ArrayList<String>(saved);
+        for (int i = 0; i < saved; i++) {
+            locations.add("group" + i);
+        }
+        Utility.setSavedLocations(mContext, locations);
+        try {
+            int total = Utility.getSyncLocations(mContext).size();
+            int requests = mServer.getRequestCount();
+            SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false,
+                    mServer.newGroupSource(new ForecastTransport(mContext)));
+            adapter.onPerformSync(null, new Bundle(), mContext.getString(R.string.content_authority),
+                    null, new SyncResult());
+
+            int batches = (total + GroupWeatherSource.MAX_GROUP_SIZE - 1)
+                    / GroupWeatherSource.MAX_GROUP_SIZE;
+            assertEquals("Error: locations should be fetched in groups",
+                    batches, mServer.getRequestCount() - requests);
+
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+            assertNotNull(cursor);
+            assertEquals("Error: not every location's forecast was stored",
+                    total * 7, cursor.getCount());
+            cursor.close();
+        } finally {
+            Utility.setSavedLocations(mContext, Collections.<String>emptyList());
+        }
+    }
+}
@@ -20,14 +20,22 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.Bundle;
+import android.preference.EditTextPreference;
 import android.preference.ListPreference;
 import android.preference.Preference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
+import android.text.TextUtils;
 
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.NotificationArtCache;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
 /**
  * A {@link PreferenceActivity} that presents a set of application settings.
  * <p>
@@ -50,6 +58,13 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
+
+        // The saved locations are stored as a list, not as the text the user edits
+        EditTextPreference savedLocations =
+                (EditTextPreference) findPreference(getString(R.string.pref_saved_locations_key));
+        savedLocations.setOnPreferenceChangeListener(this);
+        savedLocations.setText(TextUtils.join("\n", Utility.getSavedLocations(this)));
+        setSavedLocationsSummary(savedLocations);
     }
 
     // Registers a shared preference change listener that gets notified when preferences change
@@ -120,9 +135,41 @@ public class SettingsActivity extends PreferenceActivity
 
     }
 
+    /**
+     * Lists the saved locations, marking the ones the server doesn't know.
+     */
+    private void setSavedLocationsSummary(Preference preference) {
+        List<String> summary = new ArrayList<String>();
+        for (String location : Utility.getSavedLocations(this)) {
+            if (Utility.getLocationStatus(this, location)
+                    == SunshineSyncAdapter.LOCATION_STATUS_INVALID) {
+                summary.add(getString(R.string.pref_location_error_description, location));
+            } else {
+                summary.add(location);
+            }
+        }
+        preference.setSummary(summary.isEmpty()
+                ? getString(R.string.pref_saved_locations_none) : TextUtils.join("; ", summary));
+    }
+
     // This gets called before the preference is changed
     @Override
     public boolean onPreferenceChange(Preference preference, Object value) {
+        if (preference.getKey().equals(getString(R.string.pref_saved_locations_key))) {
+            // One location per line; the preferred location is synced anyway
+            Set<String> locations = new LinkedHashSet<String>();
+            for (String line : value.toString().split("\n")) {
+                String location = line.trim();
+                if (location.length() > 0 && !location.equals(Utility.getPreferredLocation(this))) {
+                    locations.add(location);
+                }
+            }
+            Utility.setSavedLocations(this, new ArrayList<String>(locations));
+            ((EditTextPreference) preference).setText(TextUtils.join("\n", locations));
+            setSavedLocationsSummary(preference);
+            // Stored above, as a list
+            return false;
+        }
         setPreferenceSummary(preference, value);
         return true;
     }
@@ -141,6 +188,12 @@ public class SettingsActivity extends PreferenceActivity
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
             //update watchface
             SunshineSyncAdapter.syncImmediately(this);
+        } else if ( key.equals(getString(R.string.pref_saved_locations_key)) ) {
+            // fetch the locations that were added; the last sync never saw them
+            SunshineSyncAdapter.syncImmediately(this, true, true);
+        } else if ( key.startsWith(getString(R.string.pref_location_status_key) + ":") ) {
+            // the status of one synced location has changed
+            setSavedLocationsSummary(findPreference(getString(R.string.pref_saved_locations_key)));
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
@@ -148,6 +201,8 @@ public class SettingsActivity extends PreferenceActivity
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // and render the new art for notifications ahead of time
+            NotificationArtCache.getInstance(this).warmAsync();
         }
     }
 
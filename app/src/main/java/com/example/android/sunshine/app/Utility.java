@@ -21,21 +21,80 @@ import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.preference.PreferenceManager;
 import android.text.format.Time;
+import android.util.Log;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 public class Utility {
+    private static final String LOG_TAG = Utility.class.getSimpleName();
+
     public static String getPreferredLocation(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_location_key),
                 context.getString(R.string.pref_location_default));
     }
 
+    /**
+     * Returns every location the sync adapter keeps up to date: the preferred location first,
+     * followed by any other saved locations.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @return the distinct location settings to sync
+     */
+    public static List<String> getSyncLocations(Context context) {
+        Set<String> locations = new LinkedHashSet<String>();
+        locations.add(getPreferredLocation(context));
+        locations.addAll(getSavedLocations(context));
+        return new ArrayList<String>(locations);
+    }
+
+    /**
+     * @param context Context used to get the SharedPreferences
+     * @return the locations the user saved in settings besides the preferred location
+     */
+    public static List<String> getSavedLocations(Context context) {
+        List<String> locations = new ArrayList<String>();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String saved = prefs.getString(context.getString(R.string.pref_saved_locations_key), null);
+        if (saved != null) {
+            try {
+                JSONArray array = new JSONArray(saved);
+                for (int i = 0; i < array.length(); i++) {
+                    locations.add(array.getString(i));
+                }
+            } catch (JSONException e) {
+                Log.e(LOG_TAG, "Ignoring malformed saved locations: " + saved, e);
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Replaces the additional locations the sync adapter keeps up to date.
+     *
+     * @param context Context used to get the SharedPreferences
+     * @param locations location settings to sync besides the preferred location
+     */
+    public static void setSavedLocations(Context context, List<String> locations) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        prefs.edit()
+                .putString(context.getString(R.string.pref_saved_locations_key),
+                        new JSONArray(locations).toString())
+                .apply();
+    }
+
     public static boolean isMetric(Context context) {
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         return prefs.getString(context.getString(R.string.pref_units_key),
@@ -565,6 +624,29 @@ public class Utility {
         return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
     }
 
+    /**
+     * @param c Context used to get the key prefix
+     * @param locationSetting the location the status belongs to
+     * @return the SharedPreferences key holding the status of one synced location
+     */
+    static public String getLocationStatusKey(Context c, String locationSetting) {
+        return c.getString(R.string.pref_location_status_key) + ":" + locationSetting;
+    }
+
+    /**
+     *
+     * @param c Context used to get the SharedPreferences
+     * @param locationSetting the location to get the status of
+     * @return the location status integer type
+     */
+    @SuppressWarnings("ResourceType")
+    static public @SunshineSyncAdapter.LocationStatus
+    int getLocationStatus(Context c, String locationSetting){
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        return sp.getInt(getLocationStatusKey(c, locationSetting),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+    }
+
     /**
      * Resets the location status.  (Sets it to SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN)
      * @param c Context used to get the SharedPreferences
@@ -573,6 +655,8 @@ public class Utility {
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
         spe.putInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        spe.putInt(getLocationStatusKey(c, getPreferredLocation(c)),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
         spe.apply();
     }
 }
\ No newline at end of file
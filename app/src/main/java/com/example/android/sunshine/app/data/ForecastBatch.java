@@ -0,0 +1,119 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+
+import java.util.Arrays;
+
+/**
+ * Forecast rows to be written to the weather table, held in parallel primitive arrays instead of
+ * one ContentValues per row.  Short descriptions repeat a lot, so each distinct one is stored
+ * once and rows refer to it by index.
+ *
+ * A batch is meant to be reused: {@link #clear()} keeps the arrays, so once they have grown to
+ * the usual size, filling the batch allocates nothing.  Not thread safe.
+ */
+public class ForecastBatch {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int mSize;
+    long[] locationIds = new long[INITIAL_CAPACITY];
+    // Must already be normalized with WeatherContract.normalizeDate
+    long[] dates = new long[INITIAL_CAPACITY];
+    double[] pressures = new double[INITIAL_CAPACITY];
+    double[] humidities = new double[INITIAL_CAPACITY];
+    double[] windSpeeds = new double[INITIAL_CAPACITY];
+    double[] degrees = new double[INITIAL_CAPACITY];
+    double[] maxTemps = new double[INITIAL_CAPACITY];
+    double[] minTemps = new double[INITIAL_CAPACITY];
+    int[] weatherIds = new int[INITIAL_CAPACITY];
+    int[] descriptionIndexes = new int[INITIAL_CAPACITY];
+
+    String[] descriptions = new String[INITIAL_CAPACITY];
+    private int mDescriptionCount;
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Empties the batch, keeping its storage for the next use.
+     */
+    public void clear() {
+        mSize = 0;
+        // Drop the strings so they don't outlive the sync, but keep the table
+        Arrays.fill(descriptions, 0, mDescriptionCount, null);
+        mDescriptionCount = 0;
+    }
+
+    public void add(long locationId, long date, double pressure, double humidity,
+                    double windSpeed, double windDirection, double maxTemp, double minTemp,
+                    String description, int weatherId) {
+        if (mSize == dates.length) {
+            grow(mSize * 2);
+        }
+        int i = mSize++;
+        locationIds[i] = locationId;
+        dates[i] = date;
+        pressures[i] = pressure;
+        humidities[i] = humidity;
+        windSpeeds[i] = windSpeed;
+        degrees[i] = windDirection;
+        maxTemps[i] = maxTemp;
+        minTemps[i] = minTemp;
+        weatherIds[i] = weatherId;
+        descriptionIndexes[i] = intern(description);
+    }
+
+    public String getDescription(int row) {
+        return descriptions[descriptionIndexes[row]];
+    }
+
+    /**
+     * @return the rows as ContentValues, for writing through the regular provider interface
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] values = new ContentValues[mSize];
+        for (int i = 0; i < mSize; i++) {
+            ContentValues row = new ContentValues();
+            row.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationIds[i]);
+            row.put(WeatherContract.WeatherEntry.COLUMN_DATE, dates[i]);
+            row.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidities[i]);
+            row.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressures[i]);
+            row.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeeds[i]);
+            row.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, degrees[i]);
+            row.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, maxTemps[i]);
+            row.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, minTemps[i]);
+            row.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, getDescription(i));
+            row.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherIds[i]);
+            values[i] = row;
+        }
+        return values;
+    }
+
+    private int intern(String description) {
+        // There are only a handful of distinct descriptions, so a linear scan beats hashing
+        for (int i = 0; i < mDescriptionCount; i++) {
+            if (descriptions[i].equals(description)) {
+                return i;
+            }
+        }
+        if (mDescriptionCount == descriptions.length) {
+            descriptions = Arrays.copyOf(descriptions, mDescriptionCount * 2);
+        }
+        descriptions[mDescriptionCount] = description;
+        return mDescriptionCount++;
+    }
+
+    private void grow(int capacity) {
+        locationIds = Arrays.copyOf(locationIds, capacity);
+        dates = Arrays.copyOf(dates, capacity);
+        pressures = Arrays.copyOf(pressures, capacity);
+        humidities = Arrays.copyOf(humidities, capacity);
+        windSpeeds = Arrays.copyOf(windSpeeds, capacity);
+        degrees = Arrays.copyOf(degrees, capacity);
+        maxTemps = Arrays.copyOf(maxTemps, capacity);
+        minTemps = Arrays.copyOf(minTemps, capacity);
+        weatherIds = Arrays.copyOf(weatherIds, capacity);
+        descriptionIndexes = Arrays.copyOf(descriptionIndexes, capacity);
+    }
+}
@@ -81,6 +81,10 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // When the server last confirmed the stored forecast of this location, in milliseconds
+        // since the epoch; 0 if it never did.  This is what consumers judge freshness by.
+        public static final String COLUMN_LAST_SYNCED = "last_synced";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
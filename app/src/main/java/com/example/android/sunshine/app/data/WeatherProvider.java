@@ -17,25 +17,45 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    // What the write this thread is running has changed, to be notified once it ends; null
+    // outside of a write
+    private final ThreadLocal<PendingChanges> mPendingChanges = new ThreadLocal<PendingChanges>();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // The builder and selections are package-private so the query plan test can check exactly
+    // what query() runs
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,18 +72,18 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -230,28 +250,35 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
 
-        switch (match) {
-            case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
-            }
-            case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
-                break;
+        PendingChanges changes = beginChanges();
+        try {
+            switch (match) {
+                case WEATHER: {
+                    normalizeDate(values);
+                    long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    if ( _id > 0 )
+                        returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
+                    else
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    weatherChanged(values);
+                    break;
+                }
+                case LOCATION: {
+                    long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+                    if ( _id > 0 )
+                        returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
+                    else
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    mPendingChanges.get().uris.add(uri);
+                    break;
+                }
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
             }
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        } finally {
+            endChanges(changes);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChanges(changes);
         return returnUri;
     }
 
@@ -260,24 +287,38 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        // Read which locations lose rows while the rows are still there; null for all of them
+        Set<Long> locationIds = null;
+        if (match == WEATHER && selection != null) {
+            locationIds = queryIds(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY, selection, selectionArgs);
+        }
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
-        switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
-        }
-        // Because a null deletes all rows
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+        PendingChanges changes = beginChanges();
+        try {
+            switch (match) {
+                case WEATHER:
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    if (rowsDeleted != 0) {
+                        weatherChanged(locationIds);
+                    }
+                    break;
+                case LOCATION:
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    if (rowsDeleted != 0) {
+                        mPendingChanges.get().uris.add(uri);
+                    }
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+        } finally {
+            endChanges(changes);
         }
+        notifyChanges(changes);
         return rowsDeleted;
     }
 
@@ -295,23 +336,56 @@ public class WeatherProvider extends ContentProvider {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
-
-        switch (match) {
-            case WEATHER:
-                normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            case LOCATION:
-                rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        // The forecasts of the locations whose rows change; null for all of them.  A location's
+        // columns are part of its forecast too.
+        Set<Long> locationIds = null;
+        if (match == WEATHER && selection != null) {
+            locationIds = queryIds(db, WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY, selection, selectionArgs);
+            Long movedTo = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            if (movedTo != null) {
+                locationIds.add(movedTo);
+            }
+        } else if (match == LOCATION && selection != null) {
+            locationIds = queryIds(db, WeatherContract.LocationEntry.TABLE_NAME,
+                    WeatherContract.LocationEntry._ID, selection, selectionArgs);
         }
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+
+        PendingChanges changes = beginChanges();
+        try {
+            switch (match) {
+                case WEATHER:
+                    normalizeDate(values);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    break;
+                case LOCATION:
+                    rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    if (rowsUpdated == 0) {
+                        break;
+                    }
+                    // Updated rows are notified by their own URIs, so observers of the location
+                    // URI can tell them from rows being added or removed
+                    if (locationIds == null) {
+                        mPendingChanges.get().uris.add(uri);
+                    } else {
+                        for (long locationId : locationIds) {
+                            mPendingChanges.get().uris.add(
+                                    WeatherContract.LocationEntry.buildLocationUri(locationId));
+                        }
+                    }
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+            if (rowsUpdated != 0) {
+                weatherChanged(locationIds);
+            }
+        } finally {
+            endChanges(changes);
         }
+        notifyChanges(changes);
         return rowsUpdated;
     }
 
@@ -323,25 +397,331 @@ public class WeatherProvider extends ContentProvider {
             case WEATHER:
                 db.beginTransaction();
                 int returnCount = 0;
+                PendingChanges changes = null;
+                SQLiteStatement insert = null;
                 try {
+                    changes = beginChanges();
+                    // Compiled once for the whole transaction; each row only binds its values
+                    insert = db.compileStatement(SQL_INSERT_WEATHER);
                     for (ContentValues value : values) {
                         normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        long _id = insertWeather(db, insert, value);
                         if (_id != -1) {
                             returnCount++;
+                            weatherChanged(value);
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    if (insert != null) {
+                        insert.close();
+                    }
                     db.endTransaction();
+                    endChanges(changes);
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                notifyChanges(changes);
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    // The parameters of SQL_INSERT_WEATHER, in order.  The table replaces a row for the same
+    // location and date, so this is an upsert.
+    private static final String[] SQL_INSERT_WEATHER_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    private static final String SQL_INSERT_WEATHER = "INSERT INTO " +
+            WeatherContract.WeatherEntry.TABLE_NAME + " (" +
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherContract.WeatherEntry.COLUMN_DATE + ", " +
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE + ", " +
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY + ", " +
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED + ", " +
+            WeatherContract.WeatherEntry.COLUMN_DEGREES + ", " +
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP + ", " +
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Inserts one weather row with the compiled insert.  Values that don't hold exactly its
+     * columns go through a plain insert instead.
+     *
+     * @return the row ID, or -1 if the row was rejected
+     */
+    private static long insertWeather(SQLiteDatabase db, SQLiteStatement insert,
+                                      ContentValues values) {
+        boolean compiled = values.size() == SQL_INSERT_WEATHER_COLUMNS.length;
+        for (int i = 0; compiled && i < SQL_INSERT_WEATHER_COLUMNS.length; i++) {
+            compiled = values.containsKey(SQL_INSERT_WEATHER_COLUMNS[i]);
+        }
+        if (!compiled) {
+            return db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+        }
+
+        for (int i = 0; i < SQL_INSERT_WEATHER_COLUMNS.length; i++) {
+            DatabaseUtils.bindObjectToProgram(insert, i + 1,
+                    values.get(SQL_INSERT_WEATHER_COLUMNS[i]));
+        }
+        try {
+            return insert.executeInsert();
+        } catch (SQLException e) {
+            // Like SQLiteDatabase.insert, reject the row rather than the whole batch
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        }
+    }
+
+    /**
+     * Writes a batch of forecast rows in one transaction, binding each value straight from the
+     * batch's arrays.  For callers in this process; they reach the provider object through
+     * {@link android.content.ContentProviderClient#getLocalContentProvider()}.
+     *
+     * @return the number of rows written
+     */
+    public int bulkInsert(ForecastBatch batch) {
+        if (batch.size() == 0) {
+            return 0;
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        int returnCount;
+        db.beginTransaction();
+        PendingChanges changes = null;
+        try {
+            changes = beginChanges();
+            returnCount = insertBatch(db, batch);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            endChanges(changes);
+        }
+        notifyChanges(changes);
+        return returnCount;
+    }
+
+    /**
+     * Applies every operation in one transaction: if one of them fails, none takes effect.
+     * Observers are told about each changed URI once, after the commit, instead of after every
+     * operation; see {@link #notifyChanges}.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        return applyBatch(null, operations);
+    }
+
+    /**
+     * Writes a batch of forecast rows and then applies the operations, all in one transaction,
+     * like {@link #applyBatch(ArrayList)}.  For callers in this process, like
+     * {@link #bulkInsert(ForecastBatch)}.
+     *
+     * @param batch Rows to write before the operations, or null
+     * @return the results of the operations
+     */
+    public ContentProviderResult[] applyBatch(ForecastBatch batch,
+                                              ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ContentProviderResult[] results;
+        db.beginTransaction();
+        PendingChanges changes = null;
+        try {
+            changes = beginChanges();
+            if (batch != null) {
+                insertBatch(db, batch);
+            }
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            endChanges(changes);
+        }
+        notifyChanges(changes);
+        return results;
+    }
+
+    /**
+     * What one write changed: the forecast rows of some locations, on some dates, and other
+     * URIs.
+     */
+    private static class PendingChanges {
+        // The date of a location whose rows changed on more than one date
+        static final long ALL_DATES = Long.MIN_VALUE;
+
+        final Set<Uri> uris = new LinkedHashSet<Uri>();
+        // Location row ID to the date its forecast changed on, or ALL_DATES
+        final Map<Long, Long> weatherDates = new HashMap<Long, Long>();
+        boolean allWeather;
+
+        void add(long locationId, long date) {
+            Long previous = weatherDates.get(locationId);
+            weatherDates.put(locationId,
+                    previous == null || previous == date ? date : ALL_DATES);
+        }
+    }
+
+    /**
+     * Starts collecting changes on this thread, unless an enclosing write already does.
+     *
+     * @return what to pass to {@link #endChanges} and {@link #notifyChanges}; null if the
+     * enclosing write notifies
+     */
+    private PendingChanges beginChanges() {
+        if (mPendingChanges.get() != null) {
+            return null;
+        }
+        PendingChanges changes = new PendingChanges();
+        mPendingChanges.set(changes);
+        return changes;
+    }
+
+    private void endChanges(PendingChanges changes) {
+        if (changes != null) {
+            mPendingChanges.remove();
+        }
+    }
+
+    private void weatherChanged(ContentValues values) {
+        Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        if (locationId == null) {
+            mPendingChanges.get().allWeather = true;
+        } else {
+            mPendingChanges.get().add(locationId,
+                    date == null ? PendingChanges.ALL_DATES : date);
+        }
+    }
+
+    /**
+     * @param locationIds Locations whose forecasts changed on any date, or null for all of them
+     */
+    private void weatherChanged(Set<Long> locationIds) {
+        PendingChanges changes = mPendingChanges.get();
+        if (locationIds == null) {
+            changes.allWeather = true;
+            return;
+        }
+        for (long locationId : locationIds) {
+            changes.add(locationId, PendingChanges.ALL_DATES);
+        }
+    }
+
+    /**
+     * @return the distinct values of column in the rows of table that selection matches
+     */
+    private static Set<Long> queryIds(SQLiteDatabase db, String table, String column,
+                                      String selection, String[] selectionArgs) {
+        Set<Long> ids = new LinkedHashSet<Long>();
+        Cursor cursor = db.query(true, table, new String[]{column}, selection, selectionArgs,
+                null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ids.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Tells observers about a write once it has ended: one notification per distinct URI, and
+     * for forecasts only the locations it touched, as weather/[location setting], or
+     * weather/[location setting]/[date] when it touched just one day.  Observers of other
+     * locations aren't woken.  Forecasts the write can't place fall back to the whole weather
+     * URI.
+     *
+     * @param changes What beginChanges returned; nothing is sent if it is null, because an
+     * enclosing write will send it
+     */
+    private void notifyChanges(PendingChanges changes) {
+        if (changes == null) {
+            return;
+        }
+        ContentResolver resolver = getContext().getContentResolver();
+        if (changes.allWeather) {
+            resolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        } else if (!changes.weatherDates.isEmpty()) {
+            Map<Long, Long> unplaced = new HashMap<Long, Long>(changes.weatherDates);
+            StringBuilder ids = new StringBuilder();
+            for (long locationId : unplaced.keySet()) {
+                ids.append(ids.length() == 0 ? "" : ",").append(locationId);
+            }
+            Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                    WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry._ID,
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                    WeatherContract.LocationEntry._ID + " IN (" + ids + ")",
+                    null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    long date = unplaced.remove(cursor.getLong(0));
+                    String locationSetting = cursor.getString(1);
+                    resolver.notifyChange(date == PendingChanges.ALL_DATES
+                            ? WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting)
+                            : WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                                    locationSetting, date), null);
+                }
+            } finally {
+                cursor.close();
+            }
+            if (!unplaced.isEmpty()) {
+                // Their locations are gone too
+                resolver.notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            }
+        }
+        for (Uri uri : changes.uris) {
+            resolver.notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Writes the rows of a batch inside the caller's transaction, adding them to its changes.
+     *
+     * @return the number of rows written
+     */
+    private int insertBatch(SQLiteDatabase db, ForecastBatch batch) {
+        int returnCount = 0;
+        PendingChanges changes = mPendingChanges.get();
+        SQLiteStatement insert = null;
+        try {
+            insert = db.compileStatement(SQL_INSERT_WEATHER);
+            for (int i = 0; i < batch.size(); i++) {
+                insert.bindLong(1, batch.locationIds[i]);
+                insert.bindLong(2, batch.dates[i]);
+                insert.bindDouble(3, batch.pressures[i]);
+                insert.bindDouble(4, batch.humidities[i]);
+                insert.bindDouble(5, batch.windSpeeds[i]);
+                insert.bindDouble(6, batch.degrees[i]);
+                insert.bindDouble(7, batch.maxTemps[i]);
+                insert.bindDouble(8, batch.minTemps[i]);
+                insert.bindString(9, batch.getDescription(i));
+                insert.bindLong(10, batch.weatherIds[i]);
+                if (insert.executeInsert() != -1) {
+                    returnCount++;
+                    changes.add(batch.locationIds[i], batch.dates[i]);
+                }
+            }
+        } finally {
+            if (insert != null) {
+                insert.close();
+            }
+        }
+        return returnCount;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,88 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells everybody who shows weather about newly stored data, off the sync thread.
+ *
+ * Consumers run concurrently.  Each has its own timeout, after which it is interrupted, and a
+ * consumer that fails or hangs doesn't affect the others.  Timeouts run on a thread of their own,
+ * so they fire even while hung consumers hold every delivery thread.  The time each one took is added to
+ * the sync's trace once it finishes, which may be after the sync itself has completed.
+ */
+class FanOutDispatcher {
+    private static final String LOG_TAG = FanOutDispatcher.class.getSimpleName();
+
+    static final int MAX_THREADS = 4;
+
+    /**
+     * One recipient of the fan-out.
+     */
+    abstract static class Consumer {
+        final String name;
+        // The SyncTrace stage the time is recorded as
+        final int stage;
+        final long timeoutMillis;
+
+        Consumer(String name, int stage, long timeoutMillis) {
+            this.name = name;
+            this.stage = stage;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        abstract void deliver() throws Exception;
+    }
+
+    private final ThreadPoolExecutor mExecutor;
+    private final ScheduledThreadPoolExecutor mWatchdog;
+
+    FanOutDispatcher() {
+        mExecutor = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        mWatchdog = new ScheduledThreadPoolExecutor(1);
+        mWatchdog.setKeepAliveTime(30, TimeUnit.SECONDS);
+        // Don't keep idle threads around between syncs.
+        mExecutor.allowCoreThreadTimeOut(true);
+        mWatchdog.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts delivering to all consumers and returns without waiting for them.
+     */
+    void dispatch(List<Consumer> consumers, final SyncTrace trace) {
+        for (final Consumer consumer : consumers) {
+            final Future<?> delivery = mExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    long start = SyncTrace.startStage();
+                    try {
+                        consumer.deliver();
+                    } catch (InterruptedException e) {
+                        Log.w(LOG_TAG, consumer.name + " interrupted");
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, consumer.name + " failed", e);
+                    } finally {
+                        trace.endStage(consumer.stage, start);
+                    }
+                }
+            });
+            // A delivery still queued behind others when its time is up is dropped
+            mWatchdog.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (delivery.cancel(true)) {
+                        Log.w(LOG_TAG, consumer.name + " timed out after "
+                                + consumer.timeoutMillis + "ms");
+                    }
+                }
+            }, consumer.timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+}
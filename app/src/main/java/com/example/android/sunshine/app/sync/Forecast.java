@@ -0,0 +1,53 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Typed result of parsing an OpenWeatherMap daily forecast response.  Only the values we
+ * actually store are kept; everything else in the payload is skipped by the parser.
+ */
+class Forecast {
+    // The "cod" value reported by the server, or HTTP_OK if the response did not contain one.
+    int messageCode;
+
+    String cityName;
+    double cityLatitude;
+    double cityLongitude;
+
+    final List<Day> days = new ArrayList<Day>(16);
+
+    /**
+     * A single day of the forecast, in the order the server sent it.  The first day is always
+     * the current day at the requested location.
+     */
+    static class Day {
+        double pressure;
+        int humidity;
+        double windSpeed;
+        double windDirection;
+
+        double high;
+        double low;
+
+        String description;
+        int weatherId;
+
+        /**
+         * @return true if other holds exactly the values this day would store
+         */
+        boolean sameValuesAs(Day other) {
+            return other != null
+                    && pressure == other.pressure
+                    && humidity == other.humidity
+                    && windSpeed == other.windSpeed
+                    && windDirection == other.windDirection
+                    && high == other.high
+                    && low == other.low
+                    && weatherId == other.weatherId
+                    && (description == null
+                            ? other.description == null
+                            : description.equals(other.description));
+        }
+    }
+}
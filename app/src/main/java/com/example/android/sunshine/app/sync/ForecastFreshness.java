@@ -0,0 +1,81 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+/**
+ * Decides when stored forecasts are due for revalidation.
+ *
+ * Every location row records when the server last confirmed its forecast
+ * ({@link com.example.android.sunshine.app.data.WeatherContract.LocationEntry#COLUMN_LAST_SYNCED}),
+ * and consumers query it along with the weather rows.  They show whatever is stored right away,
+ * however old, and if it is past the soft TTL they ask for a background sync, whose data
+ * replaces what they show once it lands.  Nothing waits on the network to display a forecast.
+ *
+ * The soft TTL is the period {@link SyncScheduler} last chose, so data the periodic sync is
+ * deliberately leaving alone isn't revalidated early.  While {@link SyncCircuitBreaker} holds
+ * syncs off, nothing is revalidated either.
+ */
+public class ForecastFreshness {
+    private static final String LOG_TAG = ForecastFreshness.class.getSimpleName();
+
+    /**
+     * The periodic sync should land within its interval plus flex; only data older than that
+     * means it fell behind, e.g. while the device was offline.
+     *
+     * @return the soft TTL, from the sync period currently scheduled
+     */
+    public static long getSoftTtlMillis(Context context) {
+        return SyncScheduler.getScheduledPeriodMillis(context);
+    }
+
+    /**
+     * @param lastSynced When the forecast was last confirmed, or 0 if it never was
+     * @return true if the forecast should be revalidated
+     */
+    public static boolean isStale(long lastSynced, long now, long softTtlMillis) {
+        long age = now - lastSynced;
+        // A clock set back makes the age meaningless, so revalidate then too
+        return lastSynced <= 0 || age < 0 || age >= softTtlMillis;
+    }
+
+    /**
+     * @param data Weather rows of one location, joined with the location table
+     * @param lastSyncedColumn Index of the last synced column in data
+     * @return when the forecast in data was last confirmed, or 0 if there is none; the
+     * position of data is left as it was
+     */
+    public static long getLastSynced(Cursor data, int lastSyncedColumn) {
+        if (data == null || data.getCount() == 0) {
+            return 0;
+        }
+        int position = data.getPosition();
+        data.moveToFirst();
+        long lastSynced = data.getLong(lastSyncedColumn);
+        data.moveToPosition(position);
+        return lastSynced;
+    }
+
+    /**
+     * Asks for a background sync if the forecast in data is missing or past the soft TTL, and
+     * syncs aren't being held off after failures.  Returns right away; call it after showing
+     * data.  Requests from several consumers at once are coalesced into one sync.
+     *
+     * @return true if a sync was requested
+     */
+    public static boolean revalidateIfStale(Context context, Cursor data, int lastSyncedColumn) {
+        long lastSynced = getLastSynced(data, lastSyncedColumn);
+        long now = System.currentTimeMillis();
+        if (!isStale(lastSynced, now, getSoftTtlMillis(context))) {
+            return false;
+        }
+        if (new SyncCircuitBreaker(context).isHoldingOff(now)) {
+            Log.d(LOG_TAG, "Forecast last synced at " + lastSynced + "; syncs are held off");
+            return false;
+        }
+        Log.d(LOG_TAG, "Forecast last synced at " + lastSynced + "; revalidating");
+        SunshineSyncAdapter.syncImmediately(context, false);
+        return true;
+    }
+}
@@ -0,0 +1,302 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A size-bounded, least-recently-used disk cache of raw (decompressed) forecast responses,
+ * keyed by request URI.
+ *
+ * Each entry is a pair of files: "key.meta" holds the URI, the time the response was fetched or
+ * last revalidated, its freshness lifetime and its validators; "key.body" holds the body.  The
+ * body file's modification time doubles as the LRU access time.
+ */
+class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String META_SUFFIX = ".meta";
+    private static final String BODY_SUFFIX = ".body";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    /**
+     * Metadata about one cached response.
+     */
+    static class Entry {
+        String uri;
+        long fetchedAt;
+        long maxAgeMillis;
+        HttpValidators validators;
+
+        boolean isFresh(long now) {
+            return now >= fetchedAt && now - fetchedAt < maxAgeMillis;
+        }
+    }
+
+    private final File mDirectory;
+    private final long mMaxBytes;
+
+    ForecastResponseCache(File directory, long maxBytes) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return the metadata for the cached response to uri, or null if there is none
+     */
+    synchronized Entry get(String uri) {
+        String key = keyFor(uri);
+        File meta = new File(mDirectory, key + META_SUFFIX);
+        if (!meta.exists() || !new File(mDirectory, key + BODY_SUFFIX).exists()) {
+            return null;
+        }
+        try {
+            Entry entry = readMeta(meta);
+            // Guard against hash collisions.
+            return uri.equals(entry.uri) ? entry : null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Dropping unreadable cache entry for " + uri, e);
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Opens the cached body of uri and marks the entry as recently used.
+     */
+    synchronized InputStream openBody(String uri) throws IOException {
+        File body = new File(mDirectory, keyFor(uri) + BODY_SUFFIX);
+        body.setLastModified(System.currentTimeMillis());
+        return new BufferedInputStream(new FileInputStream(body));
+    }
+
+    /**
+     * Records that the server confirmed the cached response is still current.
+     */
+    synchronized void markRevalidated(String uri, long now, long maxAgeMillis) {
+        Entry entry = get(uri);
+        if (entry == null) {
+            return;
+        }
+        entry.fetchedAt = now;
+        entry.maxAgeMillis = maxAgeMillis;
+        try {
+            writeMeta(new File(mDirectory, keyFor(uri) + META_SUFFIX), entry);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to update cache entry for " + uri, e);
+        }
+    }
+
+    /**
+     * Wraps a network body so that everything read through it is also written to the cache.
+     * The new entry only replaces the old one once {@link CachingInputStream#commit()} is called.
+     */
+    CachingInputStream cacheWhileReading(InputStream in, Entry entry) throws IOException {
+        if (!mDirectory.exists() && !mDirectory.mkdirs()) {
+            throw new IOException("Unable to create " + mDirectory);
+        }
+        return new CachingInputStream(in, entry, keyFor(entry.uri));
+    }
+
+    class CachingInputStream extends FilterInputStream {
+        private final Entry mEntry;
+        private final String mKey;
+        private final File mTmpBody;
+        private OutputStream mOut;
+        private boolean mDone;
+
+        CachingInputStream(InputStream in, Entry entry, String key) throws IOException {
+            super(in);
+            mEntry = entry;
+            mKey = key;
+            mTmpBody = new File(mDirectory, key + BODY_SUFFIX + TMP_SUFFIX);
+            mOut = new BufferedOutputStream(new FileOutputStream(mTmpBody));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1 && mOut != null) {
+                mOut.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0 && mOut != null) {
+                mOut.write(buffer, offset, read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Route skips through read() so the cached copy stays complete.
+            byte[] buffer = new byte[(int) Math.min(n, 4096)];
+            long skipped = 0;
+            while (skipped < n) {
+                int read = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (read == -1) break;
+                skipped += read;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Reads whatever is left of the body and publishes the entry.  Call this only after the
+         * body was successfully consumed, so a broken response never becomes a cache entry.
+         */
+        void commit() throws IOException {
+            byte[] buffer = new byte[4096];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // drain, so the cached copy is complete
+            }
+            mOut.close();
+            mOut = null;
+            synchronized (ForecastResponseCache.this) {
+                File body = new File(mDirectory, mKey + BODY_SUFFIX);
+                File tmpMeta = new File(mDirectory, mKey + META_SUFFIX + TMP_SUFFIX);
+                writeMeta(tmpMeta, mEntry);
+                if (!mTmpBody.renameTo(body)
+                        || !tmpMeta.renameTo(new File(mDirectory, mKey + META_SUFFIX))) {
+                    remove(mKey);
+                    throw new IOException("Unable to publish cache entry for " + mEntry.uri);
+                }
+                mDone = true;
+                trimToSize();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (mOut != null) {
+                    mOut.close();
+                    mOut = null;
+                }
+                if (!mDone) {
+                    mTmpBody.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Evicts least recently used entries until the cache fits into its size bound.
+     */
+    private void trimToSize() {
+        File[] bodies = mDirectory.listFiles();
+        if (bodies == null) {
+            return;
+        }
+        long size = 0;
+        for (File file : bodies) {
+            size += file.length();
+        }
+        if (size <= mMaxBytes) {
+            return;
+        }
+        Arrays.sort(bodies, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        for (File file : bodies) {
+            if (size <= mMaxBytes) {
+                break;
+            }
+            String name = file.getName();
+            if (!name.endsWith(BODY_SUFFIX)) {
+                continue;
+            }
+            String key = name.substring(0, name.length() - BODY_SUFFIX.length());
+            size -= file.length() + new File(mDirectory, key + META_SUFFIX).length();
+            remove(key);
+        }
+    }
+
+    private void remove(String key) {
+        new File(mDirectory, key + BODY_SUFFIX).delete();
+        new File(mDirectory, key + META_SUFFIX).delete();
+    }
+
+    private static Entry readMeta(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            Entry entry = new Entry();
+            entry.uri = in.readUTF();
+            entry.fetchedAt = in.readLong();
+            entry.maxAgeMillis = in.readLong();
+            String etag = in.readBoolean() ? in.readUTF() : null;
+            String lastModified = in.readBoolean() ? in.readUTF() : null;
+            if (etag != null || lastModified != null) {
+                entry.validators = new HttpValidators(etag, lastModified);
+            }
+            return entry;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeMeta(File file, Entry entry) throws IOException {
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeUTF(entry.uri);
+            out.writeLong(entry.fetchedAt);
+            out.writeLong(entry.maxAgeMillis);
+            String etag = entry.validators == null ? null : entry.validators.etag;
+            String lastModified = entry.validators == null ? null : entry.validators.lastModified;
+            out.writeBoolean(etag != null);
+            if (etag != null) out.writeUTF(etag);
+            out.writeBoolean(lastModified != null);
+            if (lastModified != null) out.writeUTF(lastModified);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static String keyFor(String uri) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest(uri.getBytes("UTF-8"));
+            StringBuilder key = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                key.append(Character.forDigit((b >> 4) & 0xf, 16));
+                key.append(Character.forDigit(b & 0xf, 16));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(uri.hashCode());
+        } catch (UnsupportedEncodingException e) {
+            return Integer.toHexString(uri.hashCode());
+        }
+    }
+}
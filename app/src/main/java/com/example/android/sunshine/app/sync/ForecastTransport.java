@@ -0,0 +1,330 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Fetches forecast responses over HTTP with gzip, conditional requests and a bounded on-disk
+ * response cache in front of the network.
+ *
+ * Freshness policy: a cached response is fresh for the max-age the server gave it in
+ * Cache-Control, or {@link #DEFAULT_MAX_AGE_MILLIS} if it gave none.  Callers that pass
+ * allowCached (manual refreshes) are served a fresh response from disk without touching the
+ * network; everybody else always revalidates with the server.
+ */
+class ForecastTransport {
+    private static final String LOG_TAG = ForecastTransport.class.getSimpleName();
+
+    // OWM updates its model data roughly every 10 minutes.
+    static final long DEFAULT_MAX_AGE_MILLIS = 10 * 60 * 1000;
+    private static final long CACHE_MAX_BYTES = 512 * 1024;
+    private static final String CACHE_DIRECTORY = "forecast-responses";
+
+    // Where the response body comes from
+    static final int SOURCE_NETWORK = 0;
+    static final int SOURCE_CACHE = 1;
+    static final int SOURCE_NOT_MODIFIED = 2;
+
+    private static final String STATS_PREFS_NAME = "forecast_transport_stats";
+    private static final String STAT_REQUESTS = "requests";
+    private static final String STAT_CACHE_HITS = "cache_hits";
+    private static final String STAT_NOT_MODIFIED = "not_modified";
+    private static final String STAT_WIRE_BYTES = "wire_bytes";
+    private static final String STAT_BODY_BYTES = "body_bytes";
+
+    /**
+     * The outcome of a fetch.  Always close it; call {@link #commit()} first if the body was
+     * consumed successfully and may be cached.
+     */
+    class Response {
+        final int source;
+        final int code;
+        // Validators of the version this response represents, or null if unknown.
+        final HttpValidators validators;
+        // Decompressed body, or null for SOURCE_NOT_MODIFIED.
+        final InputStream body;
+        // Time spent on DNS and connecting, and from sending the request to the response
+        // headers.  Zero when the network wasn't used.
+        long connectNanos;
+        long firstByteNanos;
+
+        private final HttpURLConnection mConnection;
+        private final CountingInputStream mWire;
+        private final CountingInputStream mDecoded;
+        private boolean mClosed;
+
+        private Response(int source, int code, HttpValidators validators, InputStream body,
+                         HttpURLConnection connection, CountingInputStream wire,
+                         CountingInputStream decoded) {
+            this.source = source;
+            this.code = code;
+            this.validators = validators;
+            this.body = body;
+            mConnection = connection;
+            mWire = wire;
+            mDecoded = decoded;
+        }
+
+        /**
+         * Publishes the body to the response cache, if it is going there.
+         */
+        void commit() throws IOException {
+            if (body instanceof ForecastResponseCache.CachingInputStream) {
+                ((ForecastResponseCache.CachingInputStream) body).commit();
+            }
+        }
+
+        void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            try {
+                if (body != null) {
+                    body.close();
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, "Error closing stream", e);
+            }
+            if (mConnection != null) {
+                mConnection.disconnect();
+            }
+            recordStats(this, getWireBytes(), getBodyBytes());
+        }
+
+        /**
+         * @return bytes received from the network so far, before decompression
+         */
+        long getWireBytes() {
+            return mWire == null ? 0 : mWire.count;
+        }
+
+        /**
+         * @return body bytes read so far, after decompression
+         */
+        long getBodyBytes() {
+            return mDecoded == null ? 0 : mDecoded.count;
+        }
+    }
+
+    private final Context mContext;
+    private final ForecastResponseCache mCache;
+
+    ForecastTransport(Context context) {
+        mContext = context.getApplicationContext();
+        mCache = new ForecastResponseCache(
+                new File(mContext.getCacheDir(), CACHE_DIRECTORY), CACHE_MAX_BYTES);
+    }
+
+    /**
+     * @param url the request URL; also the cache key
+     * @param ingested validators of the version the caller already has stored, or null.  If
+     *                 the answer is that same version, the response is SOURCE_NOT_MODIFIED.
+     * @param allowCached true to accept a fresh cached response instead of going to the network
+     * @param deadline bounds the connect and read timeouts, and is checked on every read of the
+     *                 body
+     */
+    Response fetch(String url, HttpValidators ingested, boolean allowCached,
+                   SyncDeadline deadline) throws IOException {
+        deadline.check();
+        long now = System.currentTimeMillis();
+        ForecastResponseCache.Entry cached = mCache.get(url);
+
+        if (allowCached && cached != null && cached.isFresh(now)) {
+            if (ingested != null && ingested.sameVersionAs(cached.validators)) {
+                return new Response(SOURCE_NOT_MODIFIED, HttpURLConnection.HTTP_NOT_MODIFIED,
+                        ingested, null, null, null, null);
+            }
+            return new Response(SOURCE_CACHE, HttpURLConnection.HTTP_OK, cached.validators,
+                    mCache.openBody(url), null, null, null);
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        boolean handedOff = false;
+        try {
+            connection.setRequestMethod("GET");
+            connection.setConnectTimeout(
+                    deadline.timeoutMillis(SyncDeadline.CONNECT_TIMEOUT_MILLIS));
+            connection.setReadTimeout(deadline.timeoutMillis(SyncDeadline.READ_TIMEOUT_MILLIS));
+            // Setting this ourselves turns off transparent decompression, which is what lets
+            // us count the compressed bytes.
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+
+            HttpValidators conditional = ingested != null
+                    ? ingested
+                    : (cached != null ? cached.validators : null);
+            if (conditional != null) {
+                conditional.addTo(connection);
+            }
+            long connectStart = System.nanoTime();
+            connection.connect();
+            long connected = System.nanoTime();
+
+            int code = connection.getResponseCode();
+            long firstByte = System.nanoTime();
+            long maxAge = parseMaxAge(connection.getHeaderField("Cache-Control"));
+
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                if (cached != null && cached.validators != null
+                        && cached.validators.sameVersionAs(conditional)) {
+                    mCache.markRevalidated(url, now, maxAge);
+                }
+                Response response;
+                if (ingested != null) {
+                    response = new Response(SOURCE_NOT_MODIFIED, code, ingested, null, null, null, null);
+                } else if (cached != null) {
+                    response = new Response(SOURCE_CACHE, code, cached.validators,
+                            mCache.openBody(url), null, null, null);
+                } else {
+                    throw new IOException("Unexpected 304 for unconditional request " + url);
+                }
+                response.connectNanos = connected - connectStart;
+                response.firstByteNanos = firstByte - connected;
+                return response;
+            }
+
+            InputStream raw;
+            if (code == HttpURLConnection.HTTP_OK) {
+                raw = connection.getInputStream();
+            } else if (code >= HttpURLConnection.HTTP_INTERNAL_ERROR
+                    || (raw = connection.getErrorStream()) == null) {
+                throw new IOException("HTTP " + code + " for " + url);
+            }
+            // Client errors still carry an OWM payload with a "cod" the caller wants to see.
+
+            CountingInputStream wire = new CountingInputStream(deadline.wrap(raw));
+            InputStream decoded = "gzip".equalsIgnoreCase(connection.getContentEncoding())
+                    ? new GZIPInputStream(wire)
+                    : wire;
+            CountingInputStream counted = new CountingInputStream(decoded);
+            HttpValidators validators = HttpValidators.from(connection);
+
+            InputStream body = counted;
+            if (code == HttpURLConnection.HTTP_OK && maxAge > 0) {
+                ForecastResponseCache.Entry entry = new ForecastResponseCache.Entry();
+                entry.uri = url;
+                entry.fetchedAt = now;
+                entry.maxAgeMillis = maxAge;
+                entry.validators = validators;
+                body = mCache.cacheWhileReading(counted, entry);
+            }
+            Response response = new Response(SOURCE_NETWORK, code, validators, body, connection,
+                    wire, counted);
+            response.connectNanos = connected - connectStart;
+            response.firstByteNanos = firstByte - connected;
+            handedOff = true;
+            return response;
+        } finally {
+            if (!handedOff) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * @return the freshness lifetime given by a Cache-Control header, in milliseconds
+     */
+    static long parseMaxAge(String cacheControl) {
+        if (cacheControl == null) {
+            return DEFAULT_MAX_AGE_MILLIS;
+        }
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase(Locale.US);
+            if (directive.equals("no-store") || directive.equals("no-cache")) {
+                return 0;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    return Math.max(0, Long.parseLong(directive.substring(8))) * 1000;
+                } catch (NumberFormatException e) {
+                    return DEFAULT_MAX_AGE_MILLIS;
+                }
+            }
+        }
+        return DEFAULT_MAX_AGE_MILLIS;
+    }
+
+    private synchronized void recordStats(Response response, long wireBytes, long bodyBytes) {
+        SharedPreferences prefs =
+                mContext.getSharedPreferences(STATS_PREFS_NAME, Context.MODE_PRIVATE);
+        long requests = prefs.getLong(STAT_REQUESTS, 0) + 1;
+        long cacheHits = prefs.getLong(STAT_CACHE_HITS, 0)
+                + (response.source == SOURCE_NETWORK ? 0 : 1);
+        long notModified = prefs.getLong(STAT_NOT_MODIFIED, 0)
+                + (response.code == HttpURLConnection.HTTP_NOT_MODIFIED ? 1 : 0);
+        long totalWire = prefs.getLong(STAT_WIRE_BYTES, 0) + wireBytes;
+        long totalBody = prefs.getLong(STAT_BODY_BYTES, 0) + bodyBytes;
+        prefs.edit()
+                .putLong(STAT_REQUESTS, requests)
+                .putLong(STAT_CACHE_HITS, cacheHits)
+                .putLong(STAT_NOT_MODIFIED, notModified)
+                .putLong(STAT_WIRE_BYTES, totalWire)
+                .putLong(STAT_BODY_BYTES, totalBody)
+                .apply();
+
+        Log.d(LOG_TAG, "Forecast fetch: source=" + response.source + " code=" + response.code
+                + " wire=" + wireBytes + "B body=" + bodyBytes + "B; " + describeStats(mContext));
+    }
+
+    /**
+     * @return a one-line summary of the bytes on the wire and the cache hit ratio so far
+     */
+    static String describeStats(Context context) {
+        SharedPreferences prefs =
+                context.getSharedPreferences(STATS_PREFS_NAME, Context.MODE_PRIVATE);
+        long requests = prefs.getLong(STAT_REQUESTS, 0);
+        long cacheHits = prefs.getLong(STAT_CACHE_HITS, 0);
+        float hitRatio = requests == 0 ? 0f : (float) cacheHits / requests;
+        return String.format(Locale.US,
+                "requests=%d hits=%d (%.1f%%, %d by 304) wireBytes=%d bodyBytes=%d",
+                requests, cacheHits, hitRatio * 100f, prefs.getLong(STAT_NOT_MODIFIED, 0),
+                prefs.getLong(STAT_WIRE_BYTES, 0), prefs.getLong(STAT_BODY_BYTES, 0));
+    }
+
+    /**
+     * Counts the bytes read through it.
+     */
+    static class CountingInputStream extends FilterInputStream {
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) count++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) count += read;
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Remembers the HTTP cache validators (ETag and Last-Modified) of the last forecast we stored
+ * for each location setting, so the next sync can ask the server whether anything changed
+ * instead of downloading and re-ingesting the whole forecast.
+ */
+class ForecastValidators {
+    private static final String PREFS_NAME = "forecast_validators";
+    private static final String KEY_ETAG = "etag:";
+    private static final String KEY_LAST_MODIFIED = "last_modified:";
+
+    private final SharedPreferences mPrefs;
+
+    ForecastValidators(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the validators of the forecast currently stored for the location, or null
+     */
+    HttpValidators get(String locationSetting) {
+        String etag = mPrefs.getString(KEY_ETAG + locationSetting, null);
+        String lastModified = mPrefs.getString(KEY_LAST_MODIFIED + locationSetting, null);
+        if (etag == null && lastModified == null) {
+            return null;
+        }
+        return new HttpValidators(etag, lastModified);
+    }
+
+    /**
+     * Records the validators of a response once its body has been stored.  This function should
+     * not be called from the UI thread because it uses commit to write to the shared preferences.
+     */
+    void save(String locationSetting, HttpValidators validators) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        putOrRemove(editor, KEY_ETAG + locationSetting,
+                validators == null ? null : validators.etag);
+        putOrRemove(editor, KEY_LAST_MODIFIED + locationSetting,
+                validators == null ? null : validators.lastModified);
+        editor.commit();
+    }
+
+    /**
+     * Forgets the validators for a location, forcing the next request to be unconditional.
+     */
+    void clear(String locationSetting) {
+        save(locationSetting, null);
+    }
+
+    private static void putOrRemove(SharedPreferences.Editor editor, String key, String value) {
+        if (value == null) {
+            editor.remove(key);
+        } else {
+            editor.putString(key, value);
+        }
+    }
+}
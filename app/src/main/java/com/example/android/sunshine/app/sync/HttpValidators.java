@@ -0,0 +1,64 @@
+package com.example.android.sunshine.app.sync;
+
+import java.net.HttpURLConnection;
+
+/**
+ * The HTTP cache validators (ETag and Last-Modified) of one version of a response.
+ */
+final class HttpValidators {
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+
+    final String etag;
+    final String lastModified;
+
+    HttpValidators(String etag, String lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the validators of a received response, or null if the server sent none
+     */
+    static HttpValidators from(HttpURLConnection connection) {
+        String etag = connection.getHeaderField(HEADER_ETAG);
+        String lastModified = connection.getHeaderField(HEADER_LAST_MODIFIED);
+        if (etag == null && lastModified == null) {
+            return null;
+        }
+        return new HttpValidators(etag, lastModified);
+    }
+
+    /**
+     * Turns a request that has not been connected yet into a conditional request.
+     */
+    void addTo(HttpURLConnection connection) {
+        if (etag != null) {
+            connection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            connection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, lastModified);
+        }
+    }
+
+    /**
+     * Two sets of validators identify the same version if the strong validator (ETag) matches,
+     * or, when neither side has one, if the Last-Modified dates match.
+     */
+    boolean sameVersionAs(HttpValidators other) {
+        if (other == null) {
+            return false;
+        }
+        if (etag != null || other.etag != null) {
+            return etag != null && etag.equals(other.etag);
+        }
+        return lastModified != null && lastModified.equals(other.lastModified);
+    }
+
+    @Override
+    public String toString() {
+        return "etag=" + etag + ", lastModified=" + lastModified;
+    }
+}
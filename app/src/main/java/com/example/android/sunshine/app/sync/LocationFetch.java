@@ -0,0 +1,23 @@
+package com.example.android.sunshine.app.sync;
+
+/**
+ * The outcome of fetching one location: a status, and a forecast if there is new data.
+ */
+class LocationFetch {
+    final String locationSetting;
+    final @SunshineSyncAdapter.LocationStatus int status;
+    final Forecast forecast;
+    final HttpValidators validators;
+
+    LocationFetch(String locationSetting, @SunshineSyncAdapter.LocationStatus int status) {
+        this(locationSetting, status, null, null);
+    }
+
+    LocationFetch(String locationSetting, @SunshineSyncAdapter.LocationStatus int status,
+                  Forecast forecast, HttpValidators validators) {
+        this.locationSetting = locationSetting;
+        this.status = status;
+        this.forecast = forecast;
+        this.validators = validators;
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps location settings to their row ID in the location table, so a sync doesn't have to
+ * query for every location it stores.
+ *
+ * The whole table is read in one query the first time an ID is needed, after which lookups are
+ * map reads.  A location the sync adds goes straight into the map.  Rows added or removed by
+ * anybody else drop the map, and the next lookup reads the table again.  Updates to stored rows,
+ * like every sync stamping when it last synced, don't: the provider notifies them by row URI,
+ * and nothing changes the setting of a stored location.
+ */
+class LocationIdCache {
+    private static final String[] LOCATION_ID_PROJECTION = new String[] {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+    };
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_LOCATION_SETTING = 1;
+
+    private static final Object sLock = new Object();
+    private static LocationIdCache sInstance;
+
+    private final Context mContext;
+
+    // Guarded by this.  Null until the table has been read.  Never modified once published, so
+    // it can be read without the lock.
+    private HashMap<String, Long> mIds;
+    // Bumped on every invalidation, so a read that raced with a change isn't kept
+    private int mGeneration;
+    // How many times the table was read
+    private int mReadCount;
+
+    static LocationIdCache getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new LocationIdCache(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    private LocationIdCache(Context context) {
+        mContext = context;
+        context.getContentResolver().registerContentObserver(
+                WeatherContract.LocationEntry.CONTENT_URI, true, new ContentObserver(null) {
+                    // Before API 16 there is no URI, so every change drops the map
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        invalidate();
+                    }
+
+                    @Override
+                    public void onChange(boolean selfChange, Uri uri) {
+                        if (uri == null || !isRowUri(uri)) {
+                            invalidate();
+                        }
+                    }
+                });
+    }
+
+    // Row URIs end with the row ID; the provider notifies updated rows by them
+    private static boolean isRowUri(Uri uri) {
+        try {
+            return ContentUris.parseId(uri) != -1;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Looks up several locations at once, reading the location table at most once.
+     *
+     * @return the row ID of every location setting that is stored; the others are left out
+     */
+    Map<String, Long> resolveAll(Collection<String> locationSettings) {
+        Map<String, Long> ids = warm();
+        HashMap<String, Long> resolved = new HashMap<String, Long>(locationSettings.size());
+        for (String locationSetting : locationSettings) {
+            Long id = ids.get(locationSetting);
+            if (id != null) {
+                resolved.put(locationSetting, id);
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * @return the row ID of the location, or -1 if it isn't stored
+     */
+    long get(String locationSetting) {
+        Long id = warm().get(locationSetting);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * Adds a location the caller has just stored.
+     */
+    synchronized void put(String locationSetting, long id) {
+        if (mIds != null) {
+            // Copied, since the published map may be read without the lock
+            HashMap<String, Long> ids = new HashMap<String, Long>(mIds);
+            ids.put(locationSetting, id);
+            mIds = ids;
+        }
+    }
+
+    synchronized int getReadCount() {
+        return mReadCount;
+    }
+
+    synchronized void invalidate() {
+        mIds = null;
+        mGeneration++;
+    }
+
+    private Map<String, Long> warm() {
+        int generation;
+        synchronized (this) {
+            if (mIds != null) {
+                return mIds;
+            }
+            generation = mGeneration;
+            mReadCount++;
+        }
+
+        // Not holding the lock while querying, so invalidation never waits on the database
+        HashMap<String, Long> ids = new HashMap<String, Long>();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI, LOCATION_ID_PROJECTION,
+                null, null, null);
+        if (cursor != null) {
+            try {
+                while (cursor.moveToNext()) {
+                    ids.put(cursor.getString(INDEX_LOCATION_SETTING), cursor.getLong(INDEX_ID));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        synchronized (this) {
+            if (generation == mGeneration) {
+                mIds = ids;
+            }
+        }
+        return ids;
+    }
+}
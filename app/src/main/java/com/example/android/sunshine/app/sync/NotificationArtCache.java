@@ -0,0 +1,245 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Weather artwork for notification large icons, already scaled to the icon size.
+ *
+ * Bitmaps are keyed by where the art comes from (the art pack URL, or the bundled resource it
+ * falls back to) and the pixel size, and are kept both in memory and as PNGs in the cache
+ * directory.  There are only a few distinct pieces of art, so {@link #warm()} renders all of
+ * them in the background, which is done whenever the art pack changes.  After that, posting a
+ * notification needs neither the network nor a full-size decode.
+ */
+public class NotificationArtCache {
+    private static final String LOG_TAG = NotificationArtCache.class.getSimpleName();
+
+    private static final String CACHE_DIR = "notification_art";
+    private static final int MEMORY_CACHE_KB = 2 * 1024;
+
+    // One condition for every distinct piece of art
+    private static final int[] ART_WEATHER_IDS = {200, 300, 500, 600, 701, 800, 801, 802};
+
+    private static final Object sLock = new Object();
+    private static NotificationArtCache sInstance;
+
+    private final Context mContext;
+    private final File mDirectory;
+    private final LruCache<String, Bitmap> mMemory;
+    private final ThreadPoolExecutor mWorker;
+
+    public static NotificationArtCache getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new NotificationArtCache(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    private NotificationArtCache(Context context) {
+        mContext = context;
+        mDirectory = new File(context.getCacheDir(), CACHE_DIR);
+        mMemory = new LruCache<String, Bitmap>(MEMORY_CACHE_KB) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight() / 1024;
+            }
+        };
+        mWorker = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        // Don't keep the thread around once the art is rendered
+        mWorker.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Renders the art of the current art pack in the background, and removes art that no longer
+     * belongs to it from disk.
+     */
+    public void warmAsync() {
+        mWorker.execute(new Runnable() {
+            @Override
+            public void run() {
+                warm();
+            }
+        });
+    }
+
+    /**
+     * @return the large icon for the weather condition, rendering it first if it isn't cached.
+     * Don't call this from the main thread.
+     */
+    public Bitmap getLargeIcon(int weatherId) {
+        return get(weatherId, getLargeIconWidth(), getLargeIconHeight());
+    }
+
+    // On Honeycomb and higher devices, we can retrieve the size of the large icon
+    // Prior to that, we use a fixed size
+    @SuppressLint("InlinedApi")
+    private int getLargeIconWidth() {
+        Resources resources = mContext.getResources();
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+    }
+
+    @SuppressLint("InlinedApi")
+    private int getLargeIconHeight() {
+        Resources resources = mContext.getResources();
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+    }
+
+    Bitmap get(int weatherId, int width, int height) {
+        String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        String key = key(artUrl, artResourceId, width, height);
+
+        Bitmap bitmap = mMemory.get(key);
+        if (bitmap != null) {
+            return bitmap;
+        }
+
+        File file = fileFor(key);
+        bitmap = BitmapFactory.decodeFile(file.getPath());
+        if (bitmap == null) {
+            bitmap = render(artUrl, artResourceId, width, height);
+            if (bitmap == null) {
+                return null;
+            }
+            write(file, bitmap);
+        }
+        mMemory.put(key, bitmap);
+        return bitmap;
+    }
+
+    /**
+     * Renders every piece of art of the current art pack.  Runs on the worker thread.
+     */
+    void warm() {
+        warm(getLargeIconWidth(), getLargeIconHeight());
+    }
+
+    /**
+     * Renders every piece of art of the current art pack at the given size, keeping only those
+     * files on disk.
+     */
+    void warm(int width, int height) {
+        Set<String> current = new HashSet<String>();
+        for (int weatherId : ART_WEATHER_IDS) {
+            if (get(weatherId, width, height) != null) {
+                // Keyed by the requested size like get() does; fitCenter may return less
+                current.add(fileFor(key(Utility.getArtUrlForWeatherCondition(mContext, weatherId),
+                        Utility.getArtResourceForWeatherCondition(weatherId),
+                        width, height)).getName());
+            }
+        }
+
+        // Art of other packs would only be used again if the user switched back
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!current.contains(file.getName())) {
+                    file.delete();
+                }
+            }
+        }
+        Log.d(LOG_TAG, "Notification art ready, " + current.size() + " images");
+    }
+
+    private static String key(String artUrl, int artResourceId, int width, int height) {
+        String source = artUrl != null ? artUrl : "res:" + artResourceId;
+        return String.format(Locale.US, "%s@%dx%d", source, width, height);
+    }
+
+    private Bitmap render(String artUrl, int artResourceId, int width, int height) {
+        FutureTarget<Bitmap> target = Glide.with(mContext)
+                .load(artUrl)
+                .asBitmap()
+                .error(artResourceId)
+                .fitCenter()
+                .into(width, height);
+        try {
+            // Glide may reuse its bitmap once the request is cleared, so keep a copy
+            Bitmap bitmap = target.get();
+            return bitmap.copy(bitmap.getConfig(), false);
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+            if (artResourceId == -1) {
+                return null;
+            }
+            Bitmap full = BitmapFactory.decodeResource(mContext.getResources(), artResourceId);
+            return full != null ? Bitmap.createScaledBitmap(full, width, height, true) : null;
+        } finally {
+            Glide.clear(target);
+        }
+    }
+
+    private File fileFor(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest(key.getBytes("UTF-8"))) {
+                name.append(String.format(Locale.US, "%02x", b));
+            }
+            return new File(mDirectory, name.append(".png").toString());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void write(File file, Bitmap bitmap) {
+        // Write next to the final name and rename, so a reader never sees half a file
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                return;
+            }
+            out = new FileOutputStream(temp);
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            out.close();
+            out = null;
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to store notification art", e);
+            temp.delete();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing more to do
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.sunshine.app.sync.SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+import static com.example.android.sunshine.app.sync.SunshineSyncAdapter.LOCATION_STATUS_OK;
+import static com.example.android.sunshine.app.sync.SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+import static com.example.android.sunshine.app.sync.SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+import static com.example.android.sunshine.app.sync.SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+
+/**
+ * The daily forecast API of OpenWeatherMap, http://openweathermap.org/API#forecast
+ *
+ * That API only takes one location per request; OWM's group queries exist for current weather
+ * only.  Batches are therefore a single location each.
+ */
+class OpenWeatherMapSource implements WeatherSource {
+    private static final String LOG_TAG = OpenWeatherMapSource.class.getSimpleName();
+
+    static final String DEFAULT_BASE_URL = "http://api.openweathermap.org";
+    private static final String FORECAST_PATH = "data/2.5/forecast/daily";
+
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    private final ForecastTransport mTransport;
+    private final String mBaseUrl;
+
+    /**
+     * @param baseUrl scheme and authority of the server, e.g. {@link #DEFAULT_BASE_URL}
+     */
+    OpenWeatherMapSource(ForecastTransport transport, String baseUrl) {
+        mTransport = transport;
+        mBaseUrl = baseUrl;
+    }
+
+    String buildUrl(String locationQuery) {
+        return Uri.parse(mBaseUrl).buildUpon()
+                .appendEncodedPath(FORECAST_PATH)
+                .appendQueryParameter(QUERY_PARAM, locationQuery)
+                .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build()
+                .toString();
+    }
+
+    @Override
+    public LocationFetch fetch(String locationQuery, HttpValidators ingested, boolean allowCached,
+                               SyncTrace trace, SyncDeadline deadline) {
+        // This needs to be declared outside the try/catch
+        // so that it can be closed in the finally block.
+        ForecastTransport.Response response = null;
+
+        try {
+            response = mTransport.fetch(buildUrl(locationQuery), ingested, allowCached, deadline);
+            trace.addStage(SyncTrace.STAGE_CONNECT, response.connectNanos);
+            trace.addStage(SyncTrace.STAGE_FIRST_BYTE, response.firstByteNanos);
+
+            if (response.source == ForecastTransport.SOURCE_NOT_MODIFIED) {
+                // Nothing changed upstream, so there's nothing to parse, store or fan out.
+                Log.d(LOG_TAG, "Forecast not modified for " + locationQuery);
+                return new LocationFetch(locationQuery, LOCATION_STATUS_OK);
+            }
+
+            // Parse the response as it comes off the wire, rather than buffering it first.
+            long parseStart = SyncTrace.startStage();
+            Forecast forecast = ForecastParser.parse(response.body);
+            trace.endStage(SyncTrace.STAGE_PARSE, parseStart);
+
+            // do we have an error?
+            switch (forecast.messageCode) {
+                case HttpURLConnection.HTTP_OK:
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    return new LocationFetch(locationQuery, LOCATION_STATUS_INVALID);
+                default:
+                    return new LocationFetch(locationQuery, LOCATION_STATUS_SERVER_DOWN);
+            }
+
+            // The body is good, so it may go into the response cache.  Even if storing it
+            // fails later on, the next sync can then revalidate and re-ingest it from disk.
+            response.commit();
+            return new LocationFetch(locationQuery, LOCATION_STATUS_OK, forecast,
+                    response.validators);
+        } catch (IOException e) {
+            if (deadline.isStopped()) {
+                // Not the server's fault; the sync is over.
+                Log.d(LOG_TAG, "Fetch of " + locationQuery + " stopped: " + e.getMessage());
+                return new LocationFetch(locationQuery, LOCATION_STATUS_UNKNOWN);
+            }
+            Log.e(LOG_TAG, "Error ", e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            return new LocationFetch(locationQuery, LOCATION_STATUS_SERVER_DOWN);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            return new LocationFetch(locationQuery, LOCATION_STATUS_SERVER_INVALID);
+        } finally {
+            if (response != null) {
+                response.close();
+                trace.addResponse(response.getWireBytes(), response.getBodyBytes());
+            }
+        }
+    }
+
+    @Override
+    public int getMaxBatchSize() {
+        return 1;
+    }
+
+    @Override
+    public List<LocationFetch> fetchBatch(List<String> locationQueries, boolean allowCached,
+                                          SyncTrace trace, SyncDeadline deadline) {
+        List<LocationFetch> fetches = new ArrayList<LocationFetch>(locationQueries.size());
+        for (String locationQuery : locationQueries) {
+            fetches.add(fetch(locationQuery, null, allowCached, trace, deadline));
+        }
+        return fetches;
+    }
+}
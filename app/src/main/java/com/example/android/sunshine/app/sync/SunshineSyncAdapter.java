@@ -2,26 +2,31 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
+import android.content.ContentProvider;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.SQLException;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
@@ -29,45 +34,46 @@ import android.support.v4.app.TaskStackBuilder;
 import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastBatch;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherProvider;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import com.example.android.sunshine.app.wearable.WearablePublisher;
+import com.google.android.gms.wearable.DataMap;
+
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
-import java.util.Vector;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
-public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
-    // Interval at which to sync with the weather, in seconds.
+    // Initial interval at which to sync with the weather, in seconds.  SyncScheduler adjusts
+    // it once it has seen a few syncs.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL/3;
+    // Sync extra asking to republish the stored forecast instead of fetching a new one
+    private static final String EXTRA_LAST_SYNC_ONLY = "last_sync_only";
+    // Sync extra marking a sync the user is waiting for; it gets API quota before others
+    private static final String EXTRA_USER_INITIATED = "user_initiated";
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
 
@@ -85,35 +91,31 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     private static final int INDEX_MIN_TEMP = 2;
     private static final int INDEX_SHORT_DESC = 3;
 
-    private boolean mDidInit = false;
-    private WeatherObject mWeatherObject = null;
-
-    @Override
-    public void onConnected(Bundle bundle) {
-        Log.d(LOG_TAG,"onConnected");
-
-        if (mWeatherObject!=null) {
-            ExecutorService executorService = Executors.newSingleThreadExecutor();
-            executorService.execute(new Runnable() {
-                @Override
-                public void run() {
-                    pushWeatherToWatchface(mWeatherObject.highTemp, mWeatherObject.lowTemp, mWeatherObject.weatherId);
-                }
-            });
-
-        }
-        mDidInit = true;
-    }
-
-    @Override
-    public void onConnectionSuspended(int i) {
-
-    }
-
-    @Override
-    public void onConnectionFailed(ConnectionResult connectionResult) {
+    private static final String[] STORED_DAY_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
 
-    }
+    // these indices must match the projection
+    private static final int INDEX_STORED_DATE = 0;
+    private static final int INDEX_STORED_HUMIDITY = 1;
+    private static final int INDEX_STORED_PRESSURE = 2;
+    private static final int INDEX_STORED_WIND_SPEED = 3;
+    private static final int INDEX_STORED_DEGREES = 4;
+    private static final int INDEX_STORED_MAX_TEMP = 5;
+    private static final int INDEX_STORED_MIN_TEMP = 6;
+    private static final int INDEX_STORED_SHORT_DESC = 7;
+    private static final int INDEX_STORED_WEATHER_ID = 8;
+
+    // What the watch was last sent, so unchanged data isn't pushed again.
+    private volatile String mLastWatchSignature = null;
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID,  LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -134,295 +136,680 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     private static final String ARG_LOW_DOUBLE = "lowDouble";
     private static final String ARG_IS_METRIC = "isMetric";
     private static final String ARG_WEATHER_ID = "weatherId";
-    private GoogleApiClient mGoogleApiClient;
+    // Upper bound on locations fetched at the same time.
+    private static final int MAX_PARALLEL_FETCHES = 4;
+    // Upper bound on the time from the start of a sync to its data being committed.
+    private static final long SYNC_DEADLINE_MILLIS = 60 * 1000;
+
+    private final WeatherSource mSource;
+    private final ForecastValidators mValidators;
+    private final SyncScheduler mScheduler;
+    private final SyncCircuitBreaker mCircuitBreaker;
+    private final SyncQuota mQuota;
+    private final ThreadPoolExecutor mFetchExecutor;
+    private final FanOutDispatcher mFanOut = new FanOutDispatcher();
+    // Reused by every sync; syncs never overlap
+    private final ForecastBatch mBatch = new ForecastBatch();
+    private final LocationIdCache mLocationIds;
+    // The deadline of the sync in progress, so it can be canceled
+    private volatile SyncDeadline mDeadline;
+
+    // Everybody who is told about new data, with how long each may take
+    private final FanOutDispatcher.Consumer mWidgetsConsumer =
+            new FanOutDispatcher.Consumer("widgets", SyncTrace.STAGE_WIDGETS, 5000) {
+                @Override
+                void deliver() {
+                    updateWidgets();
+                }
+            };
+    private final FanOutDispatcher.Consumer mMuzeiConsumer =
+            new FanOutDispatcher.Consumer("muzei", SyncTrace.STAGE_MUZEI, 5000) {
+                @Override
+                void deliver() {
+                    updateMuzei();
+                }
+            };
+    private final FanOutDispatcher.Consumer mNotificationConsumer =
+            new FanOutDispatcher.Consumer("notification", SyncTrace.STAGE_NOTIFICATION, 30000) {
+                @Override
+                void deliver() {
+                    notifyWeather();
+                }
+            };
+    private final FanOutDispatcher.Consumer mWatchConsumer =
+            new FanOutDispatcher.Consumer("watch", SyncTrace.STAGE_WATCH, 30000) {
+                @Override
+                void deliver() {
+                    updateWatchface();
+                }
+            };
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
+        this(context, autoInitialize, new OpenWeatherMapSource(
+                new ForecastTransport(context), OpenWeatherMapSource.DEFAULT_BASE_URL));
+    }
+
+    /**
+     * @param source Where forecasts are fetched from; tests and benchmarks pass a local one
+     */
+    SunshineSyncAdapter(Context context, boolean autoInitialize, WeatherSource source) {
         super(context, autoInitialize);
 
-        mGoogleApiClient = new GoogleApiClient.Builder(context)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .addApi(Wearable.API)
-                .build();
+        mSource = source;
+        mValidators = new ForecastValidators(context);
+        mScheduler = new SyncScheduler(context);
+        mCircuitBreaker = new SyncCircuitBreaker(context);
+        mQuota = new SyncQuota(context);
+        mLocationIds = LocationIdCache.getInstance(context);
+        mFetchExecutor = new ThreadPoolExecutor(MAX_PARALLEL_FETCHES, MAX_PARALLEL_FETCHES,
+                30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+        // Don't keep idle fetch threads around between syncs.
+        mFetchExecutor.allowCoreThreadTimeOut(true);
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+        SyncTrace trace = new SyncTrace();
+        SyncCoalescer coalescer = SyncCoalescer.getInstance(getContext());
+        if (extras.getBoolean(EXTRA_LAST_SYNC_ONLY, false)) {
+            // The stored forecast is recent enough; only hand it out again.
+            mLastWatchSignature = null;
+            mFanOut.dispatch(Collections.singletonList(mWatchConsumer), trace);
+            finishTrace(trace);
+            return;
+        }
 
+        coalescer.onSyncStarted();
+        List<String> synced = new ArrayList<String>();
+        SyncDeadline deadline = new SyncDeadline(SYNC_DEADLINE_MILLIS);
+        mDeadline = deadline;
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
-
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+            performNetworkSync(extras, syncResult, synced, trace, deadline);
         } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
+            mDeadline = null;
+            coalescer.onSyncFinished(synced);
+            finishTrace(trace);
+        }
+    }
+
+    @Override
+    public void onSyncCanceled() {
+        // Fetch threads and blocking reads don't see the interrupt of the sync thread, so they
+        // are told through the deadline as well.
+        SyncDeadline deadline = mDeadline;
+        if (deadline != null) {
+            deadline.cancel();
         }
-        return;
+        super.onSyncCanceled();
+    }
+
+    private void finishTrace(SyncTrace trace) {
+        trace.finish();
+        SyncTraceLog.add(trace);
+        Log.d(LOG_TAG, "Sync trace: " + trace);
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
+     * Fetches and stores every location, unless the circuit breaker says the server is down.
      *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * If the sync is canceled or runs out of time before its data is committed, nothing is
+     * written, and the stats only say how far it got.
+     *
+     * @param syncResult Receives the stats, and the time before which the next sync should not
+     *                   run
+     * @param synced Receives the locations whose stored forecast is current afterwards
+     * @param trace Receives the time spent in each stage
+     * @param deadline Stops every stage once the sync is canceled or out of time
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
+    private void performNetworkSync(Bundle extras, SyncResult syncResult, List<String> synced,
+                                    final SyncTrace trace, final SyncDeadline deadline) {
+        int permit = mCircuitBreaker.acquire(System.currentTimeMillis());
+        if (permit == SyncCircuitBreaker.PERMIT_NONE) {
+            Log.d(LOG_TAG, "Forecast server is failing; not syncing before "
+                    + mCircuitBreaker.getRetryAt());
+            syncResult.delayUntil = mCircuitBreaker.getRetryAt() / 1000;
+            return;
+        }
 
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
+        List<String> locations = Utility.getSyncLocations(getContext());
+        List<LocationFetch> fetches = new ArrayList<LocationFetch>(locations.size());
 
-        // These are the names of the JSON objects that need to be extracted.
+        // A manual refresh that lands shortly after the last fetch can be answered from the
+        // response cache; scheduled syncs always check with the server.
+        final boolean manual = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+        int priority = extras.getBoolean(EXTRA_USER_INITIATED, false)
+                ? SyncQuota.PRIORITY_USER
+                : SyncQuota.PRIORITY_BACKGROUND;
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+        if (permit == SyncCircuitBreaker.PERMIT_PROBE && !locations.isEmpty()) {
+            // A single request to find out whether the server is back before sending the rest
+            List<List<String>> probeRequest = Collections.singletonList(locations.subList(0, 1));
+            if (takeQuota(probeRequest, priority, syncResult).isEmpty()) {
+                return;
+            }
+            LocationFetch probe = fetchLocation(locations.get(0), manual, trace, deadline);
+            fetches.add(probe);
+            locations = probe.status == LOCATION_STATUS_SERVER_DOWN
+                    ? Collections.<String>emptyList()
+                    : locations.subList(1, locations.size());
+        }
+        // As many locations per request as the source takes; quota is spent per request
+        List<List<String>> requests = takeQuota(
+                partition(locations, mSource.getMaxBatchSize()), priority, syncResult);
+        int attempted = fetches.size();
+        for (List<String> request : requests) {
+            attempted += request.size();
+        }
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+        // Send every request concurrently; the sync takes about as long as the slowest request
+        // rather than the sum of all of them.
+        List<Future<List<LocationFetch>>> futures =
+                new ArrayList<Future<List<LocationFetch>>>(requests.size());
+        for (final List<String> request : requests) {
+            futures.add(mFetchExecutor.submit(new Callable<List<LocationFetch>>() {
+                @Override
+                public List<LocationFetch> call() {
+                    if (request.size() == 1) {
+                        // Single requests can still be conditional
+                        return Collections.singletonList(
+                                fetchLocation(request.get(0), manual, trace, deadline));
+                    }
+                    return mSource.fetchBatch(request, manual, trace, deadline);
+                }
+            }));
+        }
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    fetches.addAll(futures.get(i).get(deadline.remainingMillis(),
+                            TimeUnit.MILLISECONDS));
+                } catch (ExecutionException e) {
+                    // The source handles its own errors, so this is a bug; don't lose the rest
+                    Log.e(LOG_TAG, "Error fetching " + requests.get(i), e.getCause());
+                    for (String locationQuery : requests.get(i)) {
+                        fetches.add(new LocationFetch(locationQuery,
+                                LOCATION_STATUS_SERVER_INVALID));
+                    }
+                }
+            }
+        } catch (InterruptedException | TimeoutException e) {
+            // Canceled or out of time.  Nothing has been written yet, so just stop.
+            for (Future<List<LocationFetch>> future : futures) {
+                future.cancel(true);
+            }
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            recordStopped(syncResult, fetches, attempted);
+            return;
+        }
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+        int changed;
+        try {
+            changed = storeForecasts(fetches, syncResult, trace, deadline);
+        } catch (SyncDeadline.StoppedException e) {
+            recordStopped(syncResult, fetches, attempted);
+            return;
+        }
+        int failures = 0;
+        for (LocationFetch fetch : fetches) {
+            if (fetch.status == LOCATION_STATUS_OK) {
+                synced.add(fetch.locationSetting);
+            } else if (fetch.status == LOCATION_STATUS_SERVER_DOWN) {
+                failures++;
+                syncResult.stats.numIoExceptions++;
+            } else if (fetch.status == LOCATION_STATUS_SERVER_INVALID) {
+                syncResult.stats.numParseExceptions++;
+            }
+        }
+        long retryAt = mCircuitBreaker.record(fetches.size(), failures, System.currentTimeMillis());
+        if (retryAt > 0) {
+            syncResult.delayUntil = retryAt / 1000;
+        }
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+        // Only scheduled syncs tell us how often the forecast really changes, and a sync that
+        // reached no server tells us nothing.
+        if (!manual && !synced.isEmpty()) {
+            SyncScheduler.Decision next = mScheduler.onSyncFinished(changed > 0);
+            if (next != null) {
+                configurePeriodicSync(getContext(), next.intervalSeconds, next.flexSeconds);
+            }
+        }
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * @return the locations in consecutive requests of at most batchSize locations each
+     */
+    static List<List<String>> partition(List<String> locations, int batchSize) {
+        batchSize = Math.max(1, batchSize);
+        List<List<String>> requests =
+                new ArrayList<List<String>>((locations.size() + batchSize - 1) / batchSize);
+        for (int start = 0; start < locations.size(); start += batchSize) {
+            requests.add(locations.subList(start, Math.min(start + batchSize, locations.size())));
+        }
+        return requests;
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Takes API quota for sending the given requests, one token each.  Requests without quota
+     * are skipped along with their locations; if this is a background sync, the next one is
+     * put off until there is quota for them.
+     *
+     * @return the requests that may be sent
+     */
+    private List<List<String>> takeQuota(List<List<String>> requests, int priority,
+                                         SyncResult syncResult) {
+        if (requests.isEmpty()) {
+            return requests;
+        }
+        long now = System.currentTimeMillis();
+        int granted = mQuota.acquire(priority, requests.size(), now);
+        if (granted < requests.size()) {
+            int refused = requests.size() - granted;
+            for (List<String> request : requests.subList(granted, requests.size())) {
+                syncResult.stats.numSkippedEntries += request.size();
+            }
+            if (priority == SyncQuota.PRIORITY_BACKGROUND) {
+                syncResult.delayUntil = Math.max(syncResult.delayUntil,
+                        mQuota.getBackgroundAvailableAt(refused, now) / 1000);
+            }
+        }
+        return requests.subList(0, granted);
+    }
 
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
-                }
+    /**
+     * Records how far a sync got before it was canceled or ran out of time.
+     *
+     * @param fetches The locations that were fetched; none of them was stored
+     * @param attempted The number of locations the sync set out to fetch
+     */
+    private void recordStopped(SyncResult syncResult, List<LocationFetch> fetches,
+                               int attempted) {
+        int fetched = 0;
+        for (LocationFetch fetch : fetches) {
+            if (fetch.status != LOCATION_STATUS_UNKNOWN) {
+                fetched++;
             }
+        }
+        syncResult.stats.numEntries += fetched;
+        syncResult.stats.numSkippedEntries += attempted;
+        Log.d(LOG_TAG, "Sync stopped after fetching " + fetched + " of " + attempted
+                + " locations; nothing was written");
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+    /**
+     * Fetches the forecast for one location from the weather source.  Runs on the fetch
+     * executor, so it must not write to the database.
+     *
+     * @param locationQuery The location string to request from the server
+     * @param manual true if a fresh cached response is good enough
+     * @param trace Receives the time spent in each stage
+     * @return the parsed forecast, or only a status if there was an error or nothing changed
+     */
+    private LocationFetch fetchLocation(String locationQuery, boolean manual, SyncTrace trace,
+                                        SyncDeadline deadline) {
+        // Only ask for a conditional response if we still have the data it would refer to.
+        // The database is a cache and may have been wiped since the validators were saved.
+        HttpValidators stored = null;
+        if (hasStoredForecast(locationQuery)) {
+            stored = mValidators.get(locationQuery);
+        }
+        return mSource.fetch(locationQuery, stored, manual, trace, deadline);
+    }
 
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
+    /**
+     * Take the fetched forecasts and store the days that differ from what is already in the
+     * database with a single bulk insert, then let everybody who shows weather know that there
+     * is new data.  If nothing changed, nobody is told anything.
+     *
+     * @param fetches The outcome of fetching each location; if the write fails, the locations
+     *                that came back fine are set back to {@link #LOCATION_STATUS_UNKNOWN}
+     * @param syncResult Receives the number of rows written and deleted, or the database error
+     * @param trace Receives the time spent in each stage
+     * @param deadline Checked before anything is written
+     * @return the number of forecast rows that were new or changed
+     * @throws SyncDeadline.StoppedException if the sync stopped before writing; the forecasts
+     * are then left as they were
+     */
+    private int storeForecasts(List<LocationFetch> fetches, SyncResult syncResult,
+                               SyncTrace trace, SyncDeadline deadline)
+            throws SyncDeadline.StoppedException {
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // now we work exclusively in UTC
+        dayTime = new Time();
+
+        // Whatever the server confirmed is fresh now, changed or not
+        List<String> confirmed = new ArrayList<String>(fetches.size());
+        for (LocationFetch fetch : fetches) {
+            if (fetch.status == LOCATION_STATUS_OK) {
+                confirmed.add(fetch.locationSetting);
+            }
+        }
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(2);
+        if (!confirmed.isEmpty()) {
+            operations.add(markSynced(confirmed, System.currentTimeMillis()));
+        }
+        // delete old data so we don't build up an endless history.  The provider notifies the
+        // locations that lost days, if any, together with the rest of the batch.
+        operations.add(ContentProviderOperation.newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))})
+                .build());
+
+        List<ContentProviderResult> results = new ArrayList<ContentProviderResult>(2);
+        int changed = writeForecasts(fetches, julianStartDay, operations, results, trace, deadline);
+        int deleted = results.isEmpty() ? 0 : results.get(results.size() - 1).count;
+        syncResult.stats.numInserts += changed;
+        syncResult.stats.numDeletes += deleted;
+        syncResult.stats.numEntries += fetches.size();
+
+        if (results.isEmpty()) {
+            // The transaction was rolled back.  Leave the locations that came back fine as they
+            // were, so their validators don't turn the next sync into a "not modified" for data
+            // that was never stored, and they don't count as synced.
+            syncResult.databaseError = true;
+            for (int i = 0; i < fetches.size(); i++) {
+                LocationFetch fetch = fetches.get(i);
+                if (fetch.status == LOCATION_STATUS_OK) {
+                    fetches.set(i, new LocationFetch(fetch.locationSetting,
+                            LOCATION_STATUS_UNKNOWN));
+                }
+            }
+        }
 
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+        for (LocationFetch fetch : fetches) {
+            if (fetch.status == LOCATION_STATUS_UNKNOWN) {
+                // Stopped or never stored; nothing was learnt about this location
+                continue;
+            }
+            if (fetch.forecast != null) {
+                mValidators.save(fetch.locationSetting, fetch.validators);
+            } else if (fetch.status != LOCATION_STATUS_OK) {
+                mValidators.clear(fetch.locationSetting);
+            }
+            setLocationStatus(getContext(), fetch.locationSetting, fetch.status);
+        }
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+        // The data is committed; everything else happens off the sync thread.  If nothing
+        // anybody displays changed, only the watch is checked.
+        List<FanOutDispatcher.Consumer> consumers = new ArrayList<FanOutDispatcher.Consumer>(4);
+        if ( changed > 0 ) {
+            consumers.add(mWidgetsConsumer);
+            consumers.add(mMuzeiConsumer);
+            consumers.add(mNotificationConsumer);
+        }
+        consumers.add(mWatchConsumer);
+        mFanOut.dispatch(consumers, trace);
+        Log.d(LOG_TAG, "Sync Complete. " + fetches.size() + " locations, "
+                + changed + " Changed, " + deleted + " Expired");
+        return changed;
+    }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+    /**
+     * Writes the days of the fetched forecasts that differ from what is already stored, and then
+     * applies the given operations, in one transaction.  Locations that aren't stored yet are
+     * added first, since the rows need their IDs; the deadline is checked before each of them, so
+     * only the locations added before the sync stopped are kept.  This is all of the ingestion a
+     * sync does; the replay benchmark in the tests drives it directly.
+     *
+     * @param fetches The outcome of fetching each location
+     * @param julianStartDay The local day the forecasts start on
+     * @param operations Applied after the rows, in the same transaction
+     * @param results Receives the result of every operation; empty if the write failed
+     * @param trace Receives the time spent writing
+     * @param deadline Checked before each location is added and before the forecast is written
+     * @return the number of forecast rows that were new or changed
+     * @throws SyncDeadline.StoppedException if the sync stopped before writing the forecast
+     */
+    int writeForecasts(List<LocationFetch> fetches, int julianStartDay,
+                       ArrayList<ContentProviderOperation> operations,
+                       List<ContentProviderResult> results, SyncTrace trace,
+                       SyncDeadline deadline) throws SyncDeadline.StoppedException {
+        // Dates are in UTC
+        Time dayTime = new Time();
+        long startDate = dayTime.setJulianDay(julianStartDay);
+
+        // Only the rows that are new or whose values changed are written
+        ForecastBatch batch = mBatch;
+        batch.clear();
+
+        // Every location's ID in one lookup; only locations never stored before are inserted
+        List<String> fetched = new ArrayList<String>(fetches.size());
+        for (LocationFetch fetch : fetches) {
+            if (fetch.forecast != null) {
+                fetched.add(fetch.locationSetting);
+            }
+        }
+        Map<String, Long> locationIds = mLocationIds.resolveAll(fetched);
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+        for (LocationFetch fetch : fetches) {
+            Forecast forecast = fetch.forecast;
+            if (forecast == null) {
+                continue;
+            }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+            Long storedId = locationIds.get(fetch.locationSetting);
+            long locationId;
+            if (storedId != null) {
+                locationId = storedId;
+            } else {
+                // Adding the location is a write of its own, so a stopped sync doesn't do it
+                try {
+                    deadline.check();
+                } catch (SyncDeadline.StoppedException e) {
+                    batch.clear();
+                    throw e;
+                }
+                locationId = addLocation(fetch.locationSetting, forecast.cityName,
+                        forecast.cityLatitude, forecast.cityLongitude);
+            }
+            Map<Long, Forecast.Day> storedDays = loadStoredDays(locationId, startDate);
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
+            for(int i = 0; i < forecast.days.size(); i++) {
+                Forecast.Day day = forecast.days.get(i);
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+                // Cheating to convert this to UTC time, which is what we want anyhow
+                long dateTime = dayTime.setJulianDay(julianStartDay+i);
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+                if (day.sameValuesAs(storedDays.get(dateTime))) {
+                    continue;
+                }
 
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+                batch.add(locationId, dateTime, day.pressure, day.humidity, day.windSpeed,
+                        day.windDirection, day.high, day.low, day.description, day.weatherId);
+            }
+        }
 
-                double high;
-                double low;
+        // add to database; the rows of every location and the operations are one transaction,
+        // so a sync stopped from here on either wrote all of it or none of it
+        int changed = batch.size();
+        if ( changed > 0 || !operations.isEmpty() ) {
+            try {
+                deadline.check();
+            } catch (SyncDeadline.StoppedException e) {
+                batch.clear();
+                throw e;
+            }
+            long start = SyncTrace.startStage();
+            ContentProviderResult[] applied = writeBatch(batch, operations);
+            trace.endStage(SyncTrace.STAGE_BULK_INSERT, start);
+            if (applied != null) {
+                Collections.addAll(results, applied);
+            } else {
+                changed = 0;
+            }
+        }
+        trace.setRowsWritten(changed);
+        batch.clear();
+        return changed;
+    }
 
-                String description;
-                int weatherId;
+    /**
+     * @return an operation recording in the location table that the stored forecasts of the
+     * given locations were confirmed by the server at the given time
+     */
+    private static ContentProviderOperation markSynced(List<String> locations, long now) {
+        StringBuilder selection = new StringBuilder(
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING).append(" IN (");
+        for (int i = 0; i < locations.size(); i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LAST_SYNCED, now);
+        return ContentProviderOperation.newUpdate(WeatherContract.LocationEntry.CONTENT_URI)
+                .withValues(values)
+                .withSelection(selection.toString(), locations.toArray(new String[locations.size()]))
+                .build();
+    }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                if (i==0) {
-                    Log.d(LOG_TAG,"pushing weather data:" + high + "," + low + "," + weatherId);
-                    //the first item represents the current day, so push it to the watch.
-                    if (mDidInit)
-                        pushWeatherToWatchface(high, low, weatherId);
-                    else
-                    {
-                        mGoogleApiClient.connect();
-                        mWeatherObject = new WeatherObject(high, low, weatherId);
+    /**
+     * Writes forecast rows and applies the operations after them in one transaction.  The
+     * provider lives in this process, so it is handed the batch as it is and binds straight from
+     * its arrays; only where the provider object can't be reached (before Honeycomb) do the rows
+     * go through ContentValues, as insert operations ahead of the others.
+     *
+     * @return the results of the operations, or null if the transaction failed and nothing was
+     * written
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private ContentProviderResult[] writeBatch(ForecastBatch batch,
+                                               ArrayList<ContentProviderOperation> operations) {
+        ContentResolver resolver = getContext().getContentResolver();
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                ContentProviderClient client = resolver.acquireContentProviderClient(
+                        WeatherContract.WeatherEntry.CONTENT_URI);
+                if (client != null) {
+                    try {
+                        ContentProvider local = client.getLocalContentProvider();
+                        if (local instanceof WeatherProvider) {
+                            return ((WeatherProvider) local).applyBatch(batch, operations);
+                        }
+                    } finally {
+                        client.release();
                     }
                 }
+            }
 
-                cVVector.add(weatherValues);
+            ArrayList<ContentProviderOperation> all =
+                    new ArrayList<ContentProviderOperation>(batch.size() + operations.size());
+            for (ContentValues values : batch.toContentValues()) {
+                all.add(ContentProviderOperation.newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(values)
+                        .build());
             }
+            all.addAll(operations);
+            ContentProviderResult[] results =
+                    resolver.applyBatch(WeatherContract.CONTENT_AUTHORITY, all);
+            return Arrays.copyOfRange(results, batch.size(), results.length);
+        } catch (OperationApplicationException | RemoteException | SQLException e) {
+            // The transaction was rolled back; the next sync tries again.  SQLException covers
+            // the provider's own statements failing, e.g. on a full disk.
+            Log.e(LOG_TAG, "Error writing forecasts", e);
+            return null;
+        }
+    }
+
+    /**
+     * Helper method to read the forecast currently stored for a location, so that incoming days
+     * can be compared against it.
+     *
+     * @param locationId The row ID of the location
+     * @param startDate The first date of interest, normalized to the start of the UTC day
+     * @return the stored days, keyed by date
+     */
+    private Map<Long, Forecast.Day> loadStoredDays(long locationId, long startDate) {
+        Map<Long, Forecast.Day> storedDays = new HashMap<Long, Forecast.Day>();
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                STORED_DAY_PROJECTION,
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " >= ?",
+                new String[]{Long.toString(locationId), Long.toString(startDate)},
+                null);
+        if (cursor == null) {
+            return storedDays;
+        }
+        while (cursor.moveToNext()) {
+            Forecast.Day day = new Forecast.Day();
+            day.humidity = cursor.getInt(INDEX_STORED_HUMIDITY);
+            day.pressure = cursor.getDouble(INDEX_STORED_PRESSURE);
+            day.windSpeed = cursor.getDouble(INDEX_STORED_WIND_SPEED);
+            day.windDirection = cursor.getDouble(INDEX_STORED_DEGREES);
+            day.high = cursor.getDouble(INDEX_STORED_MAX_TEMP);
+            day.low = cursor.getDouble(INDEX_STORED_MIN_TEMP);
+            day.description = cursor.getString(INDEX_STORED_SHORT_DESC);
+            day.weatherId = cursor.getInt(INDEX_STORED_WEATHER_ID);
+            storedDays.put(cursor.getLong(INDEX_STORED_DATE), day);
+        }
+        cursor.close();
+        return storedDays;
+    }
 
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+    /**
+     * Pushes today's forecast for the preferred location to the watch, unless the watch already
+     * shows exactly that (including the temperature units).
+     */
+    private synchronized void updateWatchface() {
+        Context context = getContext();
+        String locationQuery = Utility.getPreferredLocation(context);
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
+        Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        if (cursor.moveToFirst()) {
+            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
+            double high = cursor.getDouble(INDEX_MAX_TEMP);
+            double low = cursor.getDouble(INDEX_MIN_TEMP);
+            String signature = locationQuery + "|" + high + "|" + low + "|" + weatherId + "|"
+                    + Utility.isMetric(context);
+            if (!signature.equals(mLastWatchSignature)) {
+                Log.d(LOG_TAG,"pushing weather data:" + high + "," + low + "," + weatherId);
+                mLastWatchSignature = signature;
+                pushWeatherToWatchface(high, low, weatherId);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        }
+        cursor.close();
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    /**
+     * Helper method to check whether the database still holds a current forecast for a location.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @return true if there is at least one forecast row for today or later.
+     */
+    private boolean hasStoredForecast(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
         }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
     }
 
     private void updateWidgets() {
@@ -473,33 +860,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
+
+                    // Retrieve the large icon, pre-rendered whenever the art pack changes
+                    Bitmap largeIcon = NotificationArtCache.getInstance(context)
+                            .getLargeIcon(weatherId);
                     String title = context.getString(R.string.app_name);
 
                     // Define the text of the forecast.
@@ -560,43 +924,32 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
      * @return the row ID of the added location.
      */
     long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
+        // Check the cache first; it is only a map read unless the location table has changed
+        long locationId = mLocationIds.get(locationSetting);
+        if (locationId != -1) {
+            return locationId;
+        }
 
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        // Now that the content provider is set up, inserting rows of data is pretty simple.
+        // First create a ContentValues object to hold the data you want to insert.
+        ContentValues locationValues = new ContentValues();
 
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
+        // Then add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
 
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
+        // Finally, insert location data into the database.
+        Uri insertedUri = getContext().getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                locationValues
+        );
 
-        locationCursor.close();
-        // Wait, that worked?  Yes!
+        // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
+        locationId = ContentUris.parseId(insertedUri);
+        mLocationIds.put(locationSetting, locationId);
         return locationId;
     }
 
@@ -624,11 +977,53 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        syncImmediately(context, true);
+    }
+
+    /**
+     * Helper method to have the sync adapter sync immediately
+     * @param context The context used to access the account service
+     * @param userInitiated true if the user is waiting for the result, which lets the sync use
+     *                      API quota that is held back from background requests
+     */
+    public static void syncImmediately(Context context, boolean userInitiated) {
+        syncImmediately(context, userInitiated, false);
+    }
+
+    /**
+     * Helper method to have the sync adapter sync immediately
+     * @param context The context used to access the account service
+     * @param userInitiated true if the user is waiting for the result, which lets the sync use
+     *                      API quota that is held back from background requests
+     * @param force true to go to the network even if the last sync could answer the request,
+     *              e.g. because locations were added that it never fetched
+     */
+    public static void syncImmediately(Context context, boolean userInitiated, boolean force) {
+        Bundle bundle = getSyncExtras(context, userInitiated, force);
+        if (bundle == null) {
+            return;
+        }
+        ContentResolver.requestSync(getSyncAccount(context),
+                context.getString(R.string.content_authority), bundle);
+    }
+
+    /**
+     * @return the extras of an immediate sync, or null if the request was coalesced with an
+     * earlier one
+     */
+    static Bundle getSyncExtras(Context context, boolean userInitiated, boolean force) {
+        int outcome = SyncCoalescer.getInstance(context).request(force);
+        if (outcome == SyncCoalescer.OUTCOME_COALESCED) {
+            return null;
+        }
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
-        ContentResolver.requestSync(getSyncAccount(context),
-                context.getString(R.string.content_authority), bundle);
+        bundle.putBoolean(EXTRA_USER_INITIATED, userInitiated);
+        if (outcome == SyncCoalescer.OUTCOME_SERVE_LAST_SYNC) {
+            bundle.putBoolean(EXTRA_LAST_SYNC_ONLY, true);
+        }
+        return bundle;
     }
 
     /**
@@ -685,6 +1080,9 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
          * Finally, let's do a sync to get things started
          */
         syncImmediately(context);
+
+        // Have the notification art ready before the first notification
+        NotificationArtCache.getInstance(context).warmAsync();
     }
 
     public static void initializeSyncAdapter(Context context) {
@@ -692,57 +1090,39 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     /**
-     * Sets the location status into shared preference.  This function should not be called from
-     * the UI thread because it uses commit to write to the shared preferences.
+     * Sets the status of one location into shared preference.  This function should not be called
+     * from the UI thread because it uses commit to write to the shared preferences.
      * @param c Context to get the PreferenceManager from.
+     * @param locationSetting The location the status applies to
      * @param locationStatus The IntDef value to set
      */
-    static private void setLocationStatus(Context c, @LocationStatus int locationStatus){
+    static private void setLocationStatus(Context c, String locationSetting,
+                                          @LocationStatus int locationStatus){
         SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
         SharedPreferences.Editor spe = sp.edit();
-        spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
+        spe.putInt(Utility.getLocationStatusKey(c, locationSetting), locationStatus);
+        // The preferred location's status is also kept under the original key, which is what
+        // the UI listens to.
+        if (locationSetting.equals(Utility.getPreferredLocation(c))) {
+            spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
+        }
         spe.commit();
     }
 
+    /**
+     * Queues the forecast for the watch face.  The publisher sends it when it can; a newer
+     * forecast replaces this one if it hasn't been sent by then.
+     */
     private void pushWeatherToWatchface(double high, double low, int weatherId) {
-        if (mGoogleApiClient == null) {
-            Log.e(LOG_TAG,"mGoogleApiClient is null - ignoring!");
-            return;
-        }
-
-        Log.e(LOG_TAG, "pushing weather data to watch...");
-
-//        mGoogleApiClient.connect();
-
-
-
-        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(ARG_WEATHER_URI);
-
-        putDataMapRequest.getDataMap().putString(ARG_UUID, UUID.randomUUID().toString());
-        putDataMapRequest.getDataMap().putString(ARG_HIGH_TEMP, Utility.formatTemperature(getContext(), high));
-        putDataMapRequest.getDataMap().putString(ARG_LOW_TEMP, Utility.formatTemperature(getContext(), low));
-        putDataMapRequest.getDataMap().putDouble(ARG_HIGH_DOUBLE, high);
-        putDataMapRequest.getDataMap().putDouble(ARG_LOW_DOUBLE, low);
-        putDataMapRequest.getDataMap().putBoolean(ARG_IS_METRIC, Utility.isMetric(getContext()));
-
-        putDataMapRequest.getDataMap().putInt(ARG_WEATHER_ID, weatherId);
-
-        PutDataRequest request = putDataMapRequest.asPutDataRequest();
-
-        Wearable.DataApi.putDataItem(mGoogleApiClient, request)
-                .await()
-                ;
-    }
-
-    private class WeatherObject {
-        double highTemp = 0;
-        double lowTemp = 0;
-        int weatherId = 0;
-
-        public WeatherObject(double highTemp, double lowTemp, int weatherId) {
-            this.highTemp = highTemp;
-            this.lowTemp = lowTemp;
-            this.weatherId = weatherId;
-        }
+        DataMap dataMap = new DataMap();
+        dataMap.putString(ARG_UUID, UUID.randomUUID().toString());
+        dataMap.putString(ARG_HIGH_TEMP, Utility.formatTemperature(getContext(), high));
+        dataMap.putString(ARG_LOW_TEMP, Utility.formatTemperature(getContext(), low));
+        dataMap.putDouble(ARG_HIGH_DOUBLE, high);
+        dataMap.putDouble(ARG_LOW_DOUBLE, low);
+        dataMap.putBoolean(ARG_IS_METRIC, Utility.isMetric(getContext()));
+        dataMap.putInt(ARG_WEATHER_ID, weatherId);
+
+        WearablePublisher.getInstance(getContext()).publish(ARG_WEATHER_URI, dataMap);
     }
 }
\ No newline at end of file
@@ -5,6 +5,9 @@ import android.content.Intent;
 import android.os.IBinder;
 import android.util.Log;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class SunshineSyncService extends Service {
     private static final Object sSyncAdapterLock = new Object();
     private static SunshineSyncAdapter sSunshineSyncAdapter = null;
@@ -23,4 +26,17 @@ public class SunshineSyncService extends Service {
     public IBinder onBind(Intent intent) {
         return sSunshineSyncAdapter.getSyncAdapterBinder();
     }
+
+    /**
+     * Sync diagnostics, through
+     * adb shell dumpsys activity service com.example.android.sunshine.app/.sync.SunshineSyncService
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println("Transport: " + ForecastTransport.describeStats(this));
+        writer.println("Requests: " + SyncCoalescer.describe(this));
+        writer.println("Schedule: " + SyncScheduler.describe(this));
+        writer.println("Quota: " + SyncQuota.describe(this));
+        SyncTraceLog.dump(writer);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Random;
+
+/**
+ * Keeps a failing forecast endpoint from being hammered by retries.
+ *
+ * Every sync that reaches no server at all counts as one failure towards
+ * {@link #FAILURE_THRESHOLD}, however many locations it tried; a sync in which any location got
+ * an answer resets the count.
+ * Below the threshold the next sync is only delayed, by an exponential backoff with jitter.
+ * At the threshold the circuit opens and no requests are made until the open period, which
+ * also grows exponentially, has passed.  Then the circuit is half-open: the next sync sends a
+ * single probe request, which either closes the circuit again or re-opens it for longer.
+ *
+ * The state lives in preferences, so a restarted process picks up where the last one stopped.
+ */
+class SyncCircuitBreaker {
+    private static final String LOG_TAG = SyncCircuitBreaker.class.getSimpleName();
+
+    static final int STATE_CLOSED = 0;
+    static final int STATE_OPEN = 1;
+    static final int STATE_HALF_OPEN = 2;
+
+    // What a sync may do
+    static final int PERMIT_ALL = 0;
+    static final int PERMIT_PROBE = 1;
+    static final int PERMIT_NONE = 2;
+
+    static final int FAILURE_THRESHOLD = 5;
+    static final long BASE_DELAY_MILLIS = 60 * 1000;
+    static final long MAX_DELAY_MILLIS = 6 * 60 * 60 * 1000;
+
+    private static final String PREFS_NAME = "sync_circuit";
+    private static final String PREF_STATE = "state";
+    private static final String PREF_FAILURES = "failures";
+    private static final String PREF_OPENINGS = "openings";
+    private static final String PREF_RETRY_AT = "retry_at";
+
+    private final SharedPreferences mPrefs;
+    private final Random mRandom = new Random();
+
+    SyncCircuitBreaker(Context context) {
+        mPrefs = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Called before a sync makes any requests.
+     *
+     * @return one of the PERMIT_ constants
+     */
+    synchronized int acquire(long now) {
+        switch (mPrefs.getInt(PREF_STATE, STATE_CLOSED)) {
+            case STATE_OPEN:
+                if (now < getRetryAt()) {
+                    return PERMIT_NONE;
+                }
+                mPrefs.edit().putInt(PREF_STATE, STATE_HALF_OPEN).commit();
+                Log.d(LOG_TAG, "Circuit half-open, probing");
+                return PERMIT_PROBE;
+            case STATE_HALF_OPEN:
+                // The previous probe never reported back; probe again.
+                return PERMIT_PROBE;
+            default:
+                return PERMIT_ALL;
+        }
+    }
+
+    /**
+     * Records the outcome of a sync.
+     *
+     * @param attempts number of requests the sync made
+     * @param failures how many of them reached no server or got an error back from it; the sync
+     *                 failed if all of them did
+     * @param now the current time
+     * @return the earliest time the next sync should run, or 0 if it need not be delayed
+     */
+    synchronized long record(int attempts, int failures, long now) {
+        if (attempts == 0) {
+            return getRetryAt() > now ? getRetryAt() : 0;
+        }
+        SharedPreferences.Editor editor = mPrefs.edit();
+        long retryAt = 0;
+        if (failures < attempts) {
+            // Somebody answered, so the endpoint is up
+            if (mPrefs.getInt(PREF_STATE, STATE_CLOSED) != STATE_CLOSED) {
+                Log.d(LOG_TAG, "Circuit closed");
+            }
+            editor.putInt(PREF_STATE, STATE_CLOSED)
+                    .putInt(PREF_FAILURES, 0)
+                    .putInt(PREF_OPENINGS, 0)
+                    .putLong(PREF_RETRY_AT, 0);
+        } else {
+            int total = mPrefs.getInt(PREF_FAILURES, 0) + 1;
+            int state = mPrefs.getInt(PREF_STATE, STATE_CLOSED);
+            if (state == STATE_HALF_OPEN || total >= FAILURE_THRESHOLD) {
+                int openings = mPrefs.getInt(PREF_OPENINGS, 0) + 1;
+                // The open period starts where retry backoff would have got to by the threshold
+                retryAt = now + jitter(backoff(FAILURE_THRESHOLD - 1 + openings));
+                editor.putInt(PREF_STATE, STATE_OPEN)
+                        .putInt(PREF_OPENINGS, openings);
+                Log.w(LOG_TAG, "Circuit open after " + total + " failed syncs, until " + retryAt);
+            } else {
+                retryAt = now + jitter(backoff(total));
+            }
+            editor.putInt(PREF_FAILURES, total)
+                    .putLong(PREF_RETRY_AT, retryAt);
+        }
+        editor.commit();
+        return retryAt;
+    }
+
+    synchronized int getState() {
+        return mPrefs.getInt(PREF_STATE, STATE_CLOSED);
+    }
+
+    /**
+     * @return true if syncs are being held off, either by the backoff after failures or
+     * because the circuit is open; requesting one then only wakes the sync adapter for nothing
+     */
+    synchronized boolean isHoldingOff(long now) {
+        return now < getRetryAt();
+    }
+
+    synchronized long getRetryAt() {
+        return mPrefs.getLong(PREF_RETRY_AT, 0);
+    }
+
+    /**
+     * @return the un-jittered delay after the given number of failures
+     */
+    static long backoff(int failures) {
+        if (failures <= 0) {
+            return 0;
+        }
+        // Cap the shift well before it overflows; MAX_DELAY_MILLIS is reached long before that
+        long delay = BASE_DELAY_MILLIS << Math.min(failures - 1, 20);
+        return Math.min(delay, MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * "Equal jitter": somewhere between half the delay and all of it, so that devices which
+     * failed together don't all retry together.
+     */
+    private long jitter(long delay) {
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+}
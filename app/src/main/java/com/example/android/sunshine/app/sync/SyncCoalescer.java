@@ -0,0 +1,177 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Decides what to do with a request for an immediate sync.  The watch asks for one every time
+ * the watch face becomes visible, and settings and the UI add their own, so requests tend to
+ * arrive in bursts.
+ *
+ * A request is coalesced (dropped) if an identical one was accepted within
+ * {@link #WINDOW_MILLIS}, or if a sync for the same settings is already running.  Otherwise, if
+ * every location the sync adapter keeps up to date was synced successfully within
+ * {@link #STALENESS_MILLIS}, the request is answered from the data of those syncs without going
+ * to the network.  Only the rest, and forced requests, are executed as network syncs.
+ *
+ * Requests are identified by the preferred location, the set of synced locations and the units,
+ * so a settings change is never swallowed by a sync that started before it.
+ */
+class SyncCoalescer {
+    private static final String LOG_TAG = SyncCoalescer.class.getSimpleName();
+
+    static final long WINDOW_MILLIS = 10 * 1000;
+    static final long STALENESS_MILLIS = 15 * 60 * 1000;
+
+    // What became of a request
+    static final int OUTCOME_EXECUTE = 0;
+    static final int OUTCOME_COALESCED = 1;
+    static final int OUTCOME_SERVE_LAST_SYNC = 2;
+
+    private static final String PREFS_NAME = "sync_coalescer";
+    private static final String PREF_REQUESTS = "requests";
+    private static final String PREF_COALESCED = "coalesced";
+    private static final String PREF_SERVED_LAST_SYNC = "served_last_sync";
+    private static final String PREF_EXECUTED = "executed";
+    static final String PREF_SYNCED_AT_PREFIX = "synced_at:";
+
+    private static final Object sLock = new Object();
+    private static SyncCoalescer sInstance;
+
+    private final Context mContext;
+    private final SharedPreferences mPrefs;
+
+    // Identity and elapsed-realtime of the last request that was let through
+    private String mLastRequestKey;
+    private long mLastRequestTime;
+    // Identity of the sync that is running right now, or null
+    private String mInFlightKey;
+
+    static SyncCoalescer getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new SyncCoalescer(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    private SyncCoalescer(Context context) {
+        mContext = context;
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return one of the OUTCOME_ constants; the caller acts on it
+     */
+    int request() {
+        return request(false);
+    }
+
+    /**
+     * @param force true if the request must reach the network, whatever came before it
+     * @return one of the OUTCOME_ constants; the caller acts on it
+     */
+    synchronized int request(boolean force) {
+        String key = currentKey();
+        long now = SystemClock.elapsedRealtime();
+
+        int outcome;
+        if (force) {
+            outcome = OUTCOME_EXECUTE;
+            mLastRequestKey = key;
+            mLastRequestTime = now;
+        } else if (key.equals(mInFlightKey)
+                || (key.equals(mLastRequestKey) && now - mLastRequestTime < WINDOW_MILLIS)) {
+            outcome = OUTCOME_COALESCED;
+        } else {
+            outcome = isLastSyncFresh(System.currentTimeMillis())
+                    ? OUTCOME_SERVE_LAST_SYNC
+                    : OUTCOME_EXECUTE;
+            mLastRequestKey = key;
+            mLastRequestTime = now;
+        }
+
+        String counter = outcome == OUTCOME_COALESCED ? PREF_COALESCED
+                : (outcome == OUTCOME_SERVE_LAST_SYNC ? PREF_SERVED_LAST_SYNC : PREF_EXECUTED);
+        mPrefs.edit()
+                .putLong(PREF_REQUESTS, mPrefs.getLong(PREF_REQUESTS, 0) + 1)
+                .putLong(counter, mPrefs.getLong(counter, 0) + 1)
+                .apply();
+        Log.d(LOG_TAG, "Sync request " + counter + "; " + describe(mContext));
+        return outcome;
+    }
+
+    synchronized void onSyncStarted() {
+        mInFlightKey = currentKey();
+    }
+
+    /**
+     * @param syncedLocations the locations whose forecast is now current
+     */
+    synchronized void onSyncFinished(List<String> syncedLocations) {
+        mInFlightKey = null;
+        if (syncedLocations.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (String location : syncedLocations) {
+            editor.putLong(PREF_SYNCED_AT_PREFIX + location, now);
+        }
+        editor.commit();
+    }
+
+    /**
+     * Forgets every request, running sync and count, as after a fresh install.  For tests.
+     */
+    synchronized void reset() {
+        mLastRequestKey = null;
+        mLastRequestTime = 0;
+        mInFlightKey = null;
+        mPrefs.edit().clear().commit();
+    }
+
+    /**
+     * @return true if every synced location was synced successfully within the staleness bound
+     */
+    private boolean isLastSyncFresh(long now) {
+        for (String location : Utility.getSyncLocations(mContext)) {
+            long age = now - mPrefs.getLong(PREF_SYNCED_AT_PREFIX + location, 0);
+            if (age < 0 || age >= STALENESS_MILLIS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String currentKey() {
+        // Sorted, so reordering the saved locations isn't a change
+        List<String> locations = new ArrayList<String>(Utility.getSyncLocations(mContext));
+        Collections.sort(locations);
+        return Utility.getPreferredLocation(mContext) + "|" + TextUtils.join(",", locations)
+                + "|" + Utility.isMetric(mContext);
+    }
+
+    /**
+     * @return a one-line summary of how many requests were coalesced, answered from the last
+     * sync and executed
+     */
+    static String describe(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return String.format(Locale.US,
+                "requests=%d coalesced=%d servedLastSync=%d executed=%d",
+                prefs.getLong(PREF_REQUESTS, 0), prefs.getLong(PREF_COALESCED, 0),
+                prefs.getLong(PREF_SERVED_LAST_SYNC, 0), prefs.getLong(PREF_EXECUTED, 0));
+    }
+}
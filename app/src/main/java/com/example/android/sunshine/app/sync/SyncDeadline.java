@@ -0,0 +1,92 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * How much longer a sync may run, and whether it has been canceled.
+ *
+ * One deadline is shared by everything a sync does, including the fetch threads.  Work checks
+ * it between steps with {@link #check()}; network calls also bound their socket timeouts by
+ * it, so a stalled server can't hold the sync past its deadline.  Once a sync has stopped it
+ * writes nothing more, which leaves the forecasts as the last complete sync left them; only the
+ * rows of new locations it added before stopping remain, and the next sync reuses them.
+ */
+class SyncDeadline {
+    // Per connection; a single request may not use up the whole deadline.
+    static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+
+    /**
+     * Thrown when work is abandoned because the sync was canceled or ran out of time.
+     */
+    static class StoppedException extends InterruptedIOException {
+        StoppedException(String message) {
+            super(message);
+        }
+    }
+
+    private final long mDeadlineNanos;
+    private volatile boolean mCanceled;
+
+    SyncDeadline(long timeoutMillis) {
+        mDeadlineNanos = System.nanoTime() + timeoutMillis * 1000000L;
+    }
+
+    void cancel() {
+        mCanceled = true;
+    }
+
+    boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * @return true if the sync was canceled or has run out of time
+     */
+    boolean isStopped() {
+        return mCanceled || System.nanoTime() - mDeadlineNanos >= 0;
+    }
+
+    long remainingMillis() {
+        return Math.max(0, (mDeadlineNanos - System.nanoTime()) / 1000000L);
+    }
+
+    /**
+     * @return a socket timeout of at most cap that doesn't run past the deadline
+     */
+    int timeoutMillis(int cap) {
+        // Zero would mean no timeout at all
+        return (int) Math.max(1, Math.min(cap, remainingMillis()));
+    }
+
+    void check() throws StoppedException {
+        if (mCanceled) {
+            throw new StoppedException("Sync canceled");
+        }
+        if (isStopped()) {
+            throw new StoppedException("Sync deadline exceeded");
+        }
+    }
+
+    /**
+     * @return a stream that checks the deadline before every read
+     */
+    InputStream wrap(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                check();
+                return super.read();
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                check();
+                return super.read(buffer, offset, length);
+            }
+        };
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * Accounts for the requests made with our OpenWeatherMap API key, which has a quota.
+ *
+ * A token bucket: it holds up to {@link #CAPACITY} tokens, one is added every
+ * {@link #REFILL_INTERVAL_MILLIS}, and every request to the server takes one.  Background syncs
+ * can't take the last {@link #USER_RESERVE} tokens, so a refresh the user asked for still gets
+ * through when scheduled syncs, the watch and settings changes have used up the rest.
+ * Background requests that don't get a token are deferred; user requests that don't get one
+ * are denied.  Both are counted.
+ *
+ * The bucket lives in preferences, so it is shared by every trigger and survives the process.
+ */
+class SyncQuota {
+    private static final String LOG_TAG = SyncQuota.class.getSimpleName();
+
+    static final int PRIORITY_USER = 0;
+    static final int PRIORITY_BACKGROUND = 1;
+
+    // The free OpenWeatherMap plan allows 60 calls a minute per key
+    static final int CAPACITY = 60;
+    static final long REFILL_INTERVAL_MILLIS = 1000;
+    static final int USER_RESERVE = 20;
+
+    private static final String PREFS_NAME = "sync_quota";
+    private static final String PREF_TOKENS = "tokens";
+    private static final String PREF_REFILLED_AT = "refilled_at";
+    private static final String PREF_GRANTED = "granted";
+    private static final String PREF_DENIED = "denied";
+    private static final String PREF_DEFERRED = "deferred";
+
+    private final SharedPreferences mPrefs;
+
+    SyncQuota(Context context) {
+        mPrefs = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Takes tokens for up to count requests.
+     *
+     * @param priority PRIORITY_USER or PRIORITY_BACKGROUND
+     * @param count the number of requests the caller wants to make
+     * @param now the current time
+     * @return how many of the requests may be made; the caller must not make the others
+     */
+    synchronized int acquire(int priority, int count, long now) {
+        float tokens = refill(now);
+        float usable = priority == PRIORITY_USER ? tokens : tokens - USER_RESERVE;
+        int granted = Math.max(0, Math.min(count, (int) usable));
+        int refused = count - granted;
+
+        SharedPreferences.Editor editor = mPrefs.edit()
+                .putFloat(PREF_TOKENS, tokens - granted)
+                .putLong(PREF_REFILLED_AT, now)
+                .putLong(PREF_GRANTED, mPrefs.getLong(PREF_GRANTED, 0) + granted);
+        if (refused > 0) {
+            String counter = priority == PRIORITY_USER ? PREF_DENIED : PREF_DEFERRED;
+            editor.putLong(counter, mPrefs.getLong(counter, 0) + refused);
+            Log.w(LOG_TAG, "Quota exhausted, " + refused + " of " + count
+                    + (priority == PRIORITY_USER ? " requests denied" : " requests deferred"));
+        }
+        editor.commit();
+        return granted;
+    }
+
+    /**
+     * @return the earliest time at which count background requests would all be granted
+     */
+    synchronized long getBackgroundAvailableAt(int count, long now) {
+        float missing = count + USER_RESERVE - refill(now);
+        if (missing <= 0) {
+            return now;
+        }
+        return now + (long) Math.ceil(missing * REFILL_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @return the tokens in the bucket at time now
+     */
+    private float refill(long now) {
+        float tokens = mPrefs.getFloat(PREF_TOKENS, CAPACITY);
+        long refilledAt = mPrefs.getLong(PREF_REFILLED_AT, now);
+        // A clock set back adds nothing rather than taking tokens away
+        long elapsed = Math.max(0, now - refilledAt);
+        return Math.min(CAPACITY, tokens + (float) elapsed / REFILL_INTERVAL_MILLIS);
+    }
+
+    static String describe(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return String.format(Locale.US, "tokens=%.1f granted=%d denied=%d deferred=%d",
+                prefs.getFloat(PREF_TOKENS, CAPACITY), prefs.getLong(PREF_GRANTED, 0),
+                prefs.getLong(PREF_DENIED, 0), prefs.getLong(PREF_DEFERRED, 0));
+    }
+}
@@ -0,0 +1,236 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.support.v4.net.ConnectivityManagerCompat;
+import android.util.Log;
+
+import java.util.Calendar;
+import java.util.Locale;
+
+/**
+ * Picks the period of the background sync from what recent syncs observed, instead of always
+ * syncing every three hours.
+ *
+ * The starting point is how often the forecast actually changed over the last
+ * {@link #HISTORY_SIZE} scheduled syncs: stable forecasts back off towards
+ * {@link #MAX_INTERVAL}, volatile ones tighten towards {@link #MIN_INTERVAL}.  That is then
+ * adjusted for charging state and connectivity, and finally shortened so that a sync lands in
+ * the morning window, when the daily notification is usually shown.
+ *
+ * Every decision is kept in preferences, so the effect on the number of network calls can be
+ * checked with {@link #describe(Context)}.
+ */
+class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getSimpleName();
+
+    // All intervals are in seconds, like the ones given to the sync framework.
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int MAX_INTERVAL = 60 * 60 * 12;
+    static final int MORNING_WINDOW_START_HOUR = 6;
+    static final int MORNING_WINDOW = 60 * 60;
+
+    // Number of scheduled syncs the change rate is taken over
+    static final int HISTORY_SIZE = 8;
+    // Below this many samples the default interval is kept
+    static final int MIN_SAMPLES = 4;
+    private static final int LOG_SIZE = 8;
+
+    private static final String PREFS_NAME = "sync_schedule";
+    private static final String PREF_HISTORY = "history";
+    private static final String PREF_SAMPLES = "samples";
+    private static final String PREF_INTERVAL = "interval";
+    private static final String PREF_FLEX = "flex";
+    private static final String PREF_DECISIONS = "decisions";
+    private static final String PREF_INTERVAL_TOTAL = "interval_total";
+    private static final String PREF_LOG = "log";
+
+    /**
+     * What the scheduler knows when it makes a decision.
+     */
+    static class Conditions {
+        // Scheduled syncs that found a changed forecast, out of samples
+        int changes;
+        int samples;
+        int hourOfDay;
+        int minuteOfHour;
+        boolean charging;
+        boolean connected;
+        boolean metered;
+    }
+
+    /**
+     * A sync period, with the reasons it was chosen.
+     */
+    static class Decision {
+        int intervalSeconds;
+        int flexSeconds;
+        String reason;
+    }
+
+    private final Context mContext;
+
+    SyncScheduler(Context context) {
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Records the outcome of a scheduled sync and decides on the period of the next one.
+     *
+     * @param forecastChanged true if the sync wrote any new or changed forecast rows
+     * @return the new decision, or null if the current period should be kept
+     */
+    Decision onSyncFinished(boolean forecastChanged) {
+        SharedPreferences prefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        int history = (prefs.getInt(PREF_HISTORY, 0) << 1 | (forecastChanged ? 1 : 0))
+                & ((1 << HISTORY_SIZE) - 1);
+        int samples = Math.min(HISTORY_SIZE, prefs.getInt(PREF_SAMPLES, 0) + 1);
+
+        Conditions conditions = readConditions();
+        conditions.changes = Integer.bitCount(history & ((1 << samples) - 1));
+        conditions.samples = samples;
+        Decision decision = decide(conditions);
+
+        boolean reschedule = decision.intervalSeconds
+                != prefs.getInt(PREF_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL)
+                || decision.flexSeconds != prefs.getInt(PREF_FLEX, SunshineSyncAdapter.SYNC_FLEXTIME);
+
+        String entry = String.format(Locale.US, "%tF %<tR interval=%ds flex=%ds changed=%b %s",
+                System.currentTimeMillis(), decision.intervalSeconds, decision.flexSeconds,
+                forecastChanged, decision.reason);
+        StringBuilder log = new StringBuilder(entry);
+        String[] previous = prefs.getString(PREF_LOG, "").split("\n");
+        for (int i = 0; i < previous.length && i < LOG_SIZE - 1; i++) {
+            if (previous[i].length() > 0) {
+                log.append('\n').append(previous[i]);
+            }
+        }
+
+        prefs.edit()
+                .putInt(PREF_HISTORY, history)
+                .putInt(PREF_SAMPLES, samples)
+                .putInt(PREF_INTERVAL, decision.intervalSeconds)
+                .putInt(PREF_FLEX, decision.flexSeconds)
+                .putLong(PREF_DECISIONS, prefs.getLong(PREF_DECISIONS, 0) + 1)
+                .putLong(PREF_INTERVAL_TOTAL,
+                        prefs.getLong(PREF_INTERVAL_TOTAL, 0) + decision.intervalSeconds)
+                .putString(PREF_LOG, log.toString())
+                .commit();
+        Log.d(LOG_TAG, "Sync schedule: " + entry);
+
+        return reschedule ? decision : null;
+    }
+
+    /**
+     * The scheduling policy itself, kept free of any Android state so it can be tested.
+     */
+    static Decision decide(Conditions c) {
+        Decision decision = new Decision();
+        StringBuilder reason = new StringBuilder();
+
+        int interval;
+        if (c.samples < MIN_SAMPLES) {
+            interval = SunshineSyncAdapter.SYNC_INTERVAL;
+            reason.append("learning");
+        } else if (c.changes * 2 >= c.samples) {
+            interval = 2 * 60 * 60;
+            reason.append("volatile");
+        } else if (c.changes * 4 >= c.samples) {
+            interval = SunshineSyncAdapter.SYNC_INTERVAL;
+            reason.append("changing");
+        } else if (c.changes > 0) {
+            interval = 6 * 60 * 60;
+            reason.append("stable");
+        } else {
+            interval = MAX_INTERVAL;
+            reason.append("unchanged");
+        }
+        reason.append('(').append(c.changes).append('/').append(c.samples).append(')');
+
+        if (c.connected && c.charging && !c.metered) {
+            // Syncing costs next to nothing right now
+            interval /= 2;
+            reason.append(" charging");
+        } else if (c.metered && !c.charging) {
+            interval = interval * 3 / 2;
+            reason.append(" metered");
+        }
+        interval = Math.max(MIN_INTERVAL, Math.min(MAX_INTERVAL, interval));
+        int flex = interval / 3;
+
+        // Make sure the morning notification is built from a fresh forecast: if the next sync
+        // would otherwise land after the morning window, run it inside the window instead.
+        int secondsToMorning = secondsUntil(MORNING_WINDOW_START_HOUR, c.hourOfDay, c.minuteOfHour);
+        if (secondsToMorning + MORNING_WINDOW < interval) {
+            interval = secondsToMorning + MORNING_WINDOW;
+            flex = Math.min(MORNING_WINDOW, interval);
+            reason.append(" morning");
+        }
+
+        decision.intervalSeconds = interval;
+        decision.flexSeconds = flex;
+        decision.reason = reason.toString();
+        return decision;
+    }
+
+    private static int secondsUntil(int hour, int hourOfDay, int minuteOfHour) {
+        int minutes = (hour * 60) - (hourOfDay * 60 + minuteOfHour);
+        if (minutes <= 0) {
+            minutes += 24 * 60;
+        }
+        return minutes * 60;
+    }
+
+    private Conditions readConditions() {
+        Conditions conditions = new Conditions();
+
+        Calendar now = Calendar.getInstance();
+        conditions.hourOfDay = now.get(Calendar.HOUR_OF_DAY);
+        conditions.minuteOfHour = now.get(Calendar.MINUTE);
+
+        // ACTION_BATTERY_CHANGED is sticky, so this just reads the last broadcast
+        Intent battery = mContext.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        conditions.charging = battery != null
+                && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+
+        ConnectivityManager cm =
+                (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
+        conditions.connected = activeNetwork != null && activeNetwork.isConnectedOrConnecting();
+        conditions.metered = conditions.connected && ConnectivityManagerCompat.isActiveNetworkMetered(cm);
+        return conditions;
+    }
+
+    /**
+     * @return the period of the background sync as last scheduled, flex included, in
+     * milliseconds; the longest a healthy sync leaves the data without revalidating it
+     */
+    static long getScheduledPeriodMillis(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return (prefs.getInt(PREF_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL)
+                + prefs.getInt(PREF_FLEX, SunshineSyncAdapter.SYNC_FLEXTIME)) * 1000L;
+    }
+
+    /**
+     * @return the current period, the average period chosen so far and the most recent
+     * decisions, newest first
+     */
+    static String describe(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        long decisions = prefs.getLong(PREF_DECISIONS, 0);
+        long average = decisions == 0
+                ? SunshineSyncAdapter.SYNC_INTERVAL
+                : prefs.getLong(PREF_INTERVAL_TOTAL, 0) / decisions;
+        return String.format(Locale.US,
+                "interval=%ds flex=%ds decisions=%d averageInterval=%ds (%.1f syncs/day)\n%s",
+                prefs.getInt(PREF_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL),
+                prefs.getInt(PREF_FLEX, SunshineSyncAdapter.SYNC_FLEXTIME),
+                decisions, average, 24 * 60 * 60f / average, prefs.getString(PREF_LOG, ""));
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Locale;
+
+/**
+ * Durations and sizes of the stages of one sync run.
+ *
+ * Fetch stages are added up over all locations.  Locations are fetched concurrently, so those
+ * sums can exceed the total time of the run.  The parser reads the body straight off the
+ * network, so parse time includes downloading the body.
+ *
+ * The total runs until the data is committed.  Fan-out stages are added as each consumer
+ * finishes, which is usually after that.
+ */
+class SyncTrace {
+    // DNS lookup and TCP connect
+    static final int STAGE_CONNECT = 0;
+    // From the request being sent to the response headers arriving
+    static final int STAGE_FIRST_BYTE = 1;
+    static final int STAGE_PARSE = 2;
+    // The write transaction: new rows, location bookkeeping and expiry of old rows
+    static final int STAGE_BULK_INSERT = 3;
+    static final int STAGE_WIDGETS = 4;
+    static final int STAGE_MUZEI = 5;
+    static final int STAGE_NOTIFICATION = 6;
+    static final int STAGE_WATCH = 7;
+    private static final String[] STAGE_NAMES = {
+            "connect", "firstByte", "parse", "bulkInsert",
+            "widgets", "muzei", "notification", "watch"
+    };
+
+    private final long mStartedAt = System.currentTimeMillis();
+    private final long mStartNanos = System.nanoTime();
+    private final long[] mStageNanos = new long[STAGE_NAMES.length];
+    private int mRequests;
+    private long mWireBytes;
+    private long mBodyBytes;
+    private int mRowsWritten;
+    private long mTotalNanos = -1;
+
+    /**
+     * @return a timestamp to pass to {@link #endStage(int, long)}
+     */
+    static long startStage() {
+        return System.nanoTime();
+    }
+
+    synchronized void endStage(int stage, long startNanos) {
+        addStage(stage, System.nanoTime() - startNanos);
+    }
+
+    synchronized void addStage(int stage, long nanos) {
+        mStageNanos[stage] += nanos;
+    }
+
+    /**
+     * Records one response and its size, compressed and decompressed.
+     */
+    synchronized void addResponse(long wireBytes, long bodyBytes) {
+        mRequests++;
+        mWireBytes += wireBytes;
+        mBodyBytes += bodyBytes;
+    }
+
+    synchronized void setRowsWritten(int rows) {
+        mRowsWritten = rows;
+    }
+
+    synchronized void finish() {
+        mTotalNanos = System.nanoTime() - mStartNanos;
+    }
+
+    synchronized long getStageNanos(int stage) {
+        return mStageNanos[stage];
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.US, "%tF %<tT total=%s requests=%d wire=%dB body=%dB rows=%d",
+                mStartedAt, mTotalNanos < 0 ? "running" : millis(mTotalNanos),
+                mRequests, mWireBytes, mBodyBytes, mRowsWritten));
+        for (int i = 0; i < STAGE_NAMES.length; i++) {
+            if (mStageNanos[i] > 0) {
+                sb.append(' ').append(STAGE_NAMES[i]).append('=').append(millis(mStageNanos[i]));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.1fms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A ring buffer of the most recent {@link SyncTrace}s, for finding out where slow syncs spend
+ * their time on a device in the field:
+ *
+ *   adb shell dumpsys activity service com.example.android.sunshine.app/.sync.SunshineSyncService
+ */
+class SyncTraceLog {
+    static final int CAPACITY = 32;
+
+    private static final SyncTrace[] sTraces = new SyncTrace[CAPACITY];
+    private static int sNext;
+    private static int sCount;
+
+    static synchronized void add(SyncTrace trace) {
+        sTraces[sNext] = trace;
+        sNext = (sNext + 1) % CAPACITY;
+        sCount = Math.min(CAPACITY, sCount + 1);
+    }
+
+    /**
+     * @return the recorded traces, newest first
+     */
+    static synchronized List<SyncTrace> getRecent() {
+        List<SyncTrace> traces = new ArrayList<SyncTrace>(sCount);
+        for (int i = 1; i <= sCount; i++) {
+            traces.add(sTraces[(sNext - i + CAPACITY) % CAPACITY]);
+        }
+        return traces;
+    }
+
+    static void dump(PrintWriter writer) {
+        List<SyncTrace> traces = getRecent();
+        writer.println("Recent syncs (" + traces.size() + "):");
+        for (SyncTrace trace : traces) {
+            writer.print("  ");
+            writer.println(trace);
+        }
+    }
+}
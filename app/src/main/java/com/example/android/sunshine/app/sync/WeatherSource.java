@@ -0,0 +1,42 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.List;
+
+/**
+ * A backend that forecasts come from.  The sync adapter only decides what to fetch and stores
+ * the result; building requests and parsing responses is up to the source.
+ */
+interface WeatherSource {
+
+    /**
+     * Downloads and parses the forecast for one location.  This is called from several threads
+     * at once and must not write to the database.  Errors are reported through the status of
+     * the result rather than thrown.
+     *
+     * @param locationSetting The location string to request
+     * @param ingested Validators of the version already stored for the location, or null
+     * @param allowCached true if a recently fetched copy is good enough
+     * @param trace Receives the time spent in each stage of the fetch
+     * @param deadline Must be honored while connecting, reading and parsing
+     * @return the parsed forecast, or only a status if there was an error or nothing changed.
+     * A fetch that was stopped by the deadline has {@link SunshineSyncAdapter#LOCATION_STATUS_UNKNOWN}.
+     */
+    LocationFetch fetch(String locationSetting, HttpValidators ingested, boolean allowCached,
+                        SyncTrace trace, SyncDeadline deadline);
+
+    /**
+     * @return the most locations {@link #fetchBatch} may be asked for at once; 1 if the backend
+     * can only answer one location per request
+     */
+    int getMaxBatchSize();
+
+    /**
+     * Downloads and parses the forecasts of several locations with a single request.  The same
+     * rules as for {@link #fetch} apply.  Batched requests are never conditional.
+     *
+     * @param locationSettings The locations to request, at most {@link #getMaxBatchSize()}
+     * @return the outcome for every location, in the same order
+     */
+    List<LocationFetch> fetchBatch(List<String> locationSettings, boolean allowCached,
+                                   SyncTrace trace, SyncDeadline deadline);
+}
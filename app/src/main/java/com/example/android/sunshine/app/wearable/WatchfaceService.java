@@ -29,7 +29,9 @@ public class WatchfaceService extends WearableListenerService {
                     Log.d(TAG,"data found at:" + path);
                     DataMap dataMap = DataMapItem.fromDataItem(dataEvent.getDataItem()).getDataMap();
                     for (String key : dataMap.keySet()) Log.d(TAG,"" + key + ":" + dataMap.getString(key));
-                    SunshineSyncAdapter.syncImmediately(this);
+                    // The watch face asks whenever it becomes visible; that's not worth
+                    // quota a user refresh might need
+                    SunshineSyncAdapter.syncImmediately(this, false);
                 }
                 else Log.e(TAG,"uri not equal to:" + ARG_WATCHFACE_URI + "; it was:" + path);
             }
@@ -0,0 +1,166 @@
+package com.example.android.sunshine.app.wearable;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes DataItems to the wearable over one process-wide GoogleApiClient.
+ *
+ * Callers only queue data and never block.  The queue holds at most one item per data path,
+ * the most recent one, and at most {@link #MAX_PENDING_PATHS} paths.  Items that arrive within
+ * {@link #BATCH_DELAY_MILLIS} of each other are sent in the same flush, on a single worker
+ * thread that goes away when there is nothing to do.  If the connection can't be made, or a put
+ * fails or times out, the items that weren't sent stay queued (unless newer ones replace them)
+ * and the flush is retried later.
+ */
+public class WearablePublisher {
+    private static final String LOG_TAG = WearablePublisher.class.getSimpleName();
+
+    static final int MAX_PENDING_PATHS = 16;
+    static final long BATCH_DELAY_MILLIS = 250;
+    private static final long RETRY_DELAY_MILLIS = 30 * 1000;
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+    private static final long PUT_TIMEOUT_SECONDS = 30;
+
+    private static final Object sLock = new Object();
+    private static WearablePublisher sInstance;
+
+    private final GoogleApiClient mGoogleApiClient;
+    private final ScheduledThreadPoolExecutor mWorker;
+
+    // Guarded by this
+    private final LinkedHashMap<String, DataMap> mPending = new LinkedHashMap<String, DataMap>();
+    private boolean mFlushScheduled;
+
+    public static WearablePublisher getInstance(Context context) {
+        synchronized (sLock) {
+            if (sInstance == null) {
+                sInstance = new WearablePublisher(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    private WearablePublisher(Context context) {
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+        mWorker = new ScheduledThreadPoolExecutor(1);
+        mWorker.setKeepAliveTime(60, TimeUnit.SECONDS);
+        mWorker.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues data for the given path, replacing anything still queued for it.
+     */
+    public synchronized void publish(String path, DataMap data) {
+        mPending.remove(path);
+        if (mPending.size() >= MAX_PENDING_PATHS) {
+            Iterator<String> oldest = mPending.keySet().iterator();
+            Log.w(LOG_TAG, "Send queue full, dropping " + oldest.next());
+            oldest.remove();
+        }
+        // Re-inserting moves the path to the end, so eviction stays oldest-first
+        mPending.put(path, data);
+        scheduleFlush(BATCH_DELAY_MILLIS);
+    }
+
+    private synchronized void scheduleFlush(long delayMillis) {
+        if (mFlushScheduled) {
+            return;
+        }
+        mFlushScheduled = true;
+        mWorker.schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends everything that is queued.  Runs on the worker thread only.
+     */
+    private void flush() {
+        Map<String, DataMap> batch;
+        synchronized (this) {
+            mFlushScheduled = false;
+            if (mPending.isEmpty()) {
+                return;
+            }
+            batch = new LinkedHashMap<String, DataMap>(mPending);
+            mPending.clear();
+        }
+
+        if (!mGoogleApiClient.isConnected()) {
+            ConnectionResult result =
+                    mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!result.isSuccess()) {
+                Log.w(LOG_TAG, "Unable to connect to the wearable: " + result);
+                requeue(batch);
+                return;
+            }
+        }
+
+        // Start every put before waiting for any of them
+        List<PendingResult<DataApi.DataItemResult>> puts =
+                new ArrayList<PendingResult<DataApi.DataItemResult>>(batch.size());
+        List<String> paths = new ArrayList<String>(batch.keySet());
+        for (Map.Entry<String, DataMap> item : batch.entrySet()) {
+            PutDataMapRequest request = PutDataMapRequest.create(item.getKey());
+            request.getDataMap().putAll(item.getValue());
+            puts.add(Wearable.DataApi.putDataItem(mGoogleApiClient, request.asPutDataRequest()));
+        }
+        // The sync adapter doesn't offer the same data twice, so what failed is sent again
+        Map<String, DataMap> failed = new LinkedHashMap<String, DataMap>();
+        for (int i = 0; i < puts.size(); i++) {
+            if (!puts.get(i).await(PUT_TIMEOUT_SECONDS, TimeUnit.SECONDS).getStatus().isSuccess()) {
+                failed.put(paths.get(i), batch.get(paths.get(i)));
+            }
+        }
+        Log.d(LOG_TAG, "Published " + (batch.size() - failed.size()) + " of " + batch.size()
+                + " items");
+        if (!failed.isEmpty()) {
+            requeue(failed);
+        }
+    }
+
+    /**
+     * Puts items that couldn't be sent back in the queue, except for paths that have newer
+     * data by now, and tries again later.
+     */
+    private synchronized void requeue(Map<String, DataMap> batch) {
+        LinkedHashMap<String, DataMap> newer = new LinkedHashMap<String, DataMap>(mPending);
+        mPending.clear();
+        for (Map.Entry<String, DataMap> item : batch.entrySet()) {
+            if (!newer.containsKey(item.getKey()) && mPending.size() < MAX_PENDING_PATHS) {
+                mPending.put(item.getKey(), item.getValue());
+            }
+        }
+        for (Map.Entry<String, DataMap> item : newer.entrySet()) {
+            if (mPending.size() >= MAX_PENDING_PATHS) {
+                Iterator<String> oldest = mPending.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            mPending.put(item.getKey(), item.getValue());
+        }
+        scheduleFlush(RETRY_DELAY_MILLIS);
+    }
+}
@@ -17,6 +17,7 @@ import com.bumptech.glide.request.target.Target;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ForecastFreshness;
 
 import java.util.concurrent.ExecutionException;
 
@@ -32,7 +33,8 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
             WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_LAST_SYNCED
     };
     // these indices must match the projection
     static final int INDEX_WEATHER_ID = 0;
@@ -41,6 +43,7 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     static final int INDEX_WEATHER_DESC = 3;
     static final int INDEX_WEATHER_MAX_TEMP = 4;
     static final int INDEX_WEATHER_MIN_TEMP = 5;
+    static final int INDEX_LAST_SYNCED = 6;
 
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
@@ -70,6 +73,8 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
                         null,
                         null,
                         WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+                ForecastFreshness.revalidateIfStale(DetailWidgetRemoteViewsService.this, data,
+                        INDEX_LAST_SYNCED);
                 Binder.restoreCallingIdentity(identityToken);
             }
 
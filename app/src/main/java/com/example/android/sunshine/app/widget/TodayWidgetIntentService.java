@@ -33,6 +33,7 @@ import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.ForecastFreshness;
 
 /**
  * IntentService which handles updating all Today widgets with the latest data
@@ -42,13 +43,15 @@ public class TodayWidgetIntentService extends IntentService {
             WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
             WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
             WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_LAST_SYNCED
     };
     // these indices must match the projection
     private static final int INDEX_WEATHER_ID = 0;
     private static final int INDEX_SHORT_DESC = 1;
     private static final int INDEX_MAX_TEMP = 2;
     private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_LAST_SYNCED = 4;
 
     public TodayWidgetIntentService() {
         super("TodayWidgetIntentService");
@@ -70,6 +73,7 @@ public class TodayWidgetIntentService extends IntentService {
         if (data == null) {
             return;
         }
+        ForecastFreshness.revalidateIfStale(this, data, INDEX_LAST_SYNCED);
         if (!data.moveToFirst()) {
             data.close();
             return;